@@ -0,0 +1,111 @@
+package org.miri.camcapture.benchmark;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+
+/**
+ * Compares JMH results against a baseline and fails if any benchmark regressed. <br>
+ * Both files are JMH JSON results (<i>-rf json</i>). Usage: 
+ *  <i>BenchmarkGate &lt;baseline.json&gt; &lt;results.json&gt; [max regression percent (default 10)]</i>
+ * @author Miri Yehezkel
+ *
+ */
+public final class BenchmarkGate {
+	
+	private BenchmarkGate() {}
+	
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: BenchmarkGate <baseline.json> <results.json> [max regression percent]");
+			System.exit(2);
+		}
+		Map<String, JsonObject> baseline = readResults(args[0]);
+		Map<String, JsonObject> results = readResults(args[1]);
+		double maxRegression = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+		int regressions = 0;
+		for (Map.Entry<String, JsonObject> entry : results.entrySet()) {
+			JsonObject base = baseline.get(entry.getKey());
+			if (base == null) {
+				System.out.printf("%-70s no baseline%n", entry.getKey());
+				continue;
+			}
+			double change = getChange(base, entry.getValue());
+			boolean regressed = change > maxRegression;
+			if (regressed)
+				regressions++;
+			System.out.printf("%-70s %10.3f -> %10.3f %s %+6.1f%% %s%n", entry.getKey(), getScore(base), 
+					getScore(entry.getValue()), getUnit(entry.getValue()), change, regressed ? "REGRESSED" : "ok");
+		}
+		if (regressions > 0) {
+			System.out.println(regressions + " benchmark(s) regressed by more than " + maxRegression + "%");
+			System.exit(1);
+		}
+	}
+	
+	
+	/**
+	 * Returns how much worse a result is than its baseline (negative if better), in percents.
+	 * Takes the benchmark mode into account - lower is better for time modes, higher for throughput.
+	 * @param base baseline result
+	 * @param result current result
+	 * @return A double representing the regression percent
+	 */
+	private static double getChange(JsonObject base, JsonObject result) {
+		double change = (getScore(result) - getScore(base)) / getScore(base) * 100;
+		return "thrpt".equals(result.getString("mode")) ? -change : change;
+	}
+	
+	private static double getScore(JsonObject result) {
+		return result.getJsonObject("primaryMetric").getJsonNumber("score").doubleValue();
+	}
+	
+	private static String getUnit(JsonObject result) {
+		return result.getJsonObject("primaryMetric").getString("scoreUnit");
+	}
+	
+	/**
+	 * Reads a JMH JSON results file.
+	 * @param path path of results file
+	 * @return A Map of results by benchmark name, mode and parameters
+	 * @throws IOException if unable to read file
+	 */
+	private static Map<String, JsonObject> readResults(String path) throws IOException {
+		Map<String, JsonObject> results = new HashMap<>();
+		try (InputStream in = new FileInputStream(path); JsonReader reader = Json.createReader(in)) {
+			JsonArray array = reader.readArray();
+			for (JsonValue value : array) {
+				JsonObject result = (JsonObject) value;
+				results.put(getKey(result), result);
+			}
+		}
+		return new TreeMap<>(results);
+	}
+	
+	/**
+	 * Returns key identifying a result, e.g. "SnapshotEncoderBenchmark.encode avgt resolution=640x480".
+	 * @param result JMH result
+	 * @return A String representing the result key
+	 */
+	private static String getKey(JsonObject result) {
+		String name = result.getString("benchmark");
+		StringBuilder key = new StringBuilder(name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1));
+		key.append(' ').append(result.getString("mode"));
+		JsonObject params = result.getJsonObject("params");
+		if (params != null)
+			new TreeMap<>(params).forEach((param, value) -> key.append(' ').append(param).append('=')
+					.append(((JsonString) value).getString()));
+		return key.toString();
+	}
+	
+}
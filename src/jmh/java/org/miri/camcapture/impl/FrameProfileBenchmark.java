@@ -0,0 +1,90 @@
+package org.miri.camcapture.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.miri.camcapture.api.CaptureProfile;
+import org.miri.camcapture.api.Frame;
+import org.miri.camcapture.util.SyntheticImages;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures reading a buffered frame for each consumer - a full-size copy (as every consumer did before profiles)
+ *  against copies downscaled to the video and detection profiles, and detection on a downscaled frame.
+ * @author Miri Yehezkel
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms512m", "-Xmx512m", "-Djava.awt.headless=true"})
+public class FrameProfileBenchmark {
+	@Param({"1280x720", "1920x1080"})
+	public String resolution;
+	private Frame source;
+	private Frame full;
+	private Frame video;
+	private Frame detection;
+	private MotionEngine engine;
+	
+	
+	@Setup
+	public void setup() {
+		String[] size = resolution.split("x");
+		int width = Integer.parseInt(size[0]);
+		int height = Integer.parseInt(size[1]);
+		source = new Frame(width, height);
+		source.set(SyntheticImages.scene(width, height, width / 3), 0, 0);
+		full = new Frame(width, height);
+		video = createFrame(CaptureProfile.VIDEO, width, height);
+		detection = createFrame(CaptureProfile.DETECTION, width, height);
+		engine = new MotionEngine(160, 120, 8, 25, 0.02, 4, "");
+	}
+	
+	@Benchmark
+	public Frame copyFull() {
+		full.copyFrom(source);
+		return full;
+	}
+	
+	@Benchmark
+	public Frame scaleVideo() {
+		video.scaleFrom(source);
+		return video;
+	}
+	
+	@Benchmark
+	public Frame scaleDetection() {
+		detection.scaleFrom(source);
+		return detection;
+	}
+	
+	@Benchmark
+	public boolean detectFull() {
+		full.copyFrom(source);
+		return engine.detect(full.getImage());
+	}
+	
+	@Benchmark
+	public boolean detectProfile() {
+		detection.scaleFrom(source);
+		return engine.detect(detection.getImage());
+	}
+	
+	
+	private static Frame createFrame(CaptureProfile profile, int width, int height) {
+		return new Frame(profile.getWidth(width), profile.getHeight(width, height));
+	}
+	
+}
@@ -0,0 +1,56 @@
+package org.miri.camcapture.impl;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.miri.camcapture.util.SyntheticImages;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures motion detection on a single frame. Frames alternate between two scenes 
+ *  with an object in different positions, so every comparison finds motion.
+ * @author Miri Yehezkel
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms512m", "-Xmx512m", "-Djava.awt.headless=true"})
+public class MotionEngineBenchmark {
+	@Param({"640x480", "1280x720"})
+	public String resolution;
+	private BufferedImage[] frames;
+	private MotionEngine engine;
+	private int index;
+	
+	
+	@Setup
+	public void setup() {
+		String[] size = resolution.split("x");
+		int width = Integer.parseInt(size[0]);
+		int height = Integer.parseInt(size[1]);
+		frames = new BufferedImage[] {SyntheticImages.scene(width, height, width / 5), 
+				SyntheticImages.scene(width, height, width / 2)};
+		engine = new MotionEngine(160, 120, 8, 25, 0.02, 4, "");
+		engine.detect(frames[0]);
+	}
+	
+	@Benchmark
+	public boolean detect() {
+		index ^= 1;
+		return engine.detect(frames[index]);
+	}
+	
+}
@@ -0,0 +1,88 @@
+package org.miri.camcapture.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.miri.camcapture.api.Capture;
+import org.miri.camcapture.api.ImageFormat;
+import org.miri.camcapture.api.TelegramConstants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures composing and writing a sendPhoto multipart body, as sent for in-memory captures. <br>
+ * The body is written to a counting stream instead of a socket.
+ * @author Miri Yehezkel
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms512m", "-Xmx512m"})
+public class MultipartBenchmark {
+	//typical JPEG snapshot sizes (in KB) for 480p, 720p and 1080p
+	@Param({"60", "200", "460"})
+	public int kilobytes;
+	private Capture image;
+	
+	
+	@Setup
+	public void setup() {
+		byte[] data = new byte[kilobytes * 1024];
+		new Random(kilobytes).nextBytes(data);
+		ImageFormat format = ImageFormat.JPEG;
+		image = new Capture("123456789", 1514764800000L, data, format.getFileType(), format.getMimeType());
+	}
+	
+	@Benchmark
+	public void sendPhotoBody(Blackhole blackhole) throws IOException {
+		MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+		builder.addTextBody(TelegramConstants.CHAT_ID_FIELD, image.getChatId());
+		TelegramRequests.addMedia(builder, TelegramConstants.PHOTO_FIELD, image);
+		HttpEntity entity = builder.build();
+		CountingStream out = new CountingStream(blackhole);
+		entity.writeTo(out);
+		blackhole.consume(out.count);
+	}
+	
+	
+	/**
+	 * Discards written bytes, counting them.
+	 */
+	private static class CountingStream extends OutputStream {
+		private final Blackhole blackhole;
+		private long count;
+		
+		CountingStream(Blackhole blackhole) {
+			this.blackhole = blackhole;
+		}
+		
+		@Override
+		public void write(int b) {
+			count++;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) {
+			blackhole.consume(b);
+			count += len;
+		}
+	}
+	
+}
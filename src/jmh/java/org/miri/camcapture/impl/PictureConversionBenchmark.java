@@ -0,0 +1,71 @@
+package org.miri.camcapture.impl;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.miri.camcapture.api.VideoOptions;
+import org.miri.camcapture.util.SyntheticImages;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.xuggle.xuggler.IVideoPicture;
+
+/**
+ * Measures conversion of captured frames to YUV420P pictures, as done by the video converter stage. <br>
+ * Only conversion is measured; the video file is opened during setup and nothing is encoded into it.
+ * @author Miri Yehezkel
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms512m", "-Xmx512m", "-Djava.awt.headless=true"})
+public class PictureConversionBenchmark {
+	@Param({"640x480", "1280x720"})
+	public String resolution;
+	private BufferedImage image;
+	private File file;
+	private VideoEncoder encoder;
+	private long timestamp;
+	
+	
+	@Setup
+	public void setup() throws IOException {
+		String[] size = resolution.split("x");
+		int width = Integer.parseInt(size[0]);
+		int height = Integer.parseInt(size[1]);
+		image = SyntheticImages.scene(width, height, 100);
+		file = File.createTempFile("conversion-benchmark", ".mp4");
+		encoder = new VideoEncoder(file, width, height, new VideoOptions(1, 10, 0));
+	}
+	
+	@TearDown
+	public void tearDown() {
+		encoder.close();
+		file.delete();
+	}
+	
+	@Benchmark
+	public long toPicture() {
+		IVideoPicture picture = encoder.toPicture(image, timestamp += 100000);
+		long size = picture.getSize();
+		//releases native picture memory right away, instead of waiting for the collector
+		picture.delete();
+		return size;
+	}
+	
+}
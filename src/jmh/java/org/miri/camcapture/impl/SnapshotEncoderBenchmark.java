@@ -0,0 +1,49 @@
+package org.miri.camcapture.impl;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.miri.camcapture.util.SyntheticImages;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures snapshot encoding, as done when saving and sending images. <br>
+ * Encodes in the configured format, add <i>-jvmArgsAppend -Dsnapshot.format=png</i> to measure PNG.
+ * @author Miri Yehezkel
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms512m", "-Xmx512m", "-Djava.awt.headless=true"})
+public class SnapshotEncoderBenchmark {
+	@Param({"640x480", "1280x720", "1920x1080"})
+	public String resolution;
+	private BufferedImage image;
+	
+	
+	@Setup
+	public void setup() {
+		String[] size = resolution.split("x");
+		image = SyntheticImages.scene(Integer.parseInt(size[0]), Integer.parseInt(size[1]), 100);
+	}
+	
+	@Benchmark
+	public byte[] encode() throws IOException {
+		return SnapshotEncoder.INSTANCE.encode(image);
+	}
+	
+}
@@ -0,0 +1,110 @@
+package org.miri.camcapture.impl;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+import org.miri.camcapture.api.TelegramConstants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures parsing of getUpdates responses, using canned responses shaped like Telegram's
+ *  (mostly text commands, with some photo messages and edited messages). <br>
+ * {@link #treeModel()} measures the previous way of parsing - reading the whole response into a JSON tree 
+ *  and walking it. Add <i>-prof gc</i> to compare allocation.
+ * @author Miri Yehezkel
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms512m", "-Xmx512m"})
+public class UpdateParserBenchmark {
+	@Param({"1", "10", "100"})
+	public int updates;
+	private byte[] response;
+	private UpdateParser parser;
+	
+	
+	@Setup
+	public void setup() {
+		response = createResponse(updates).getBytes(StandardCharsets.UTF_8);
+		parser = new UpdateParser();
+	}
+	
+	@Benchmark
+	public List<Update> parse() {
+		return parser.parse(new ByteArrayInputStream(response));
+	}
+	
+	@Benchmark
+	public void treeModel(Blackhole blackhole) {
+		JsonArray results;
+		try (JsonReader reader = Json.createReader(new ByteArrayInputStream(response))) {
+			results = reader.readObject().getJsonArray(TelegramConstants.RESULT_FIELD);
+		}
+		for (int i = 0; i < results.size(); i++) {
+			JsonObject message = results.getJsonObject(i).getJsonObject(TelegramConstants.MESSAGE_FIELD);
+			if (message == null || ! message.containsKey(TelegramConstants.TEXT_FIELD))
+				continue;
+			blackhole.consume(message.getJsonString(TelegramConstants.TEXT_FIELD).toString());
+			blackhole.consume(message.getJsonObject(TelegramConstants.CHAT_FIELD).getInt(TelegramConstants.ID_FIELD) + "");
+		}
+		blackhole.consume(results.getJsonObject(results.size() - 1).getInt(TelegramConstants.UPDATE_ID_FIELD) + 1);
+	}
+	
+	
+	/**
+	 * Creates a getUpdates response holding given number of updates - 
+	 *  mostly text messages, every 5th a photo message and every 7th an edited message.
+	 * @param count number of updates
+	 * @return A String representing the response body
+	 */
+	static String createResponse(int count) {
+		String[] commands = {"/image", "/video 5 10", "/detect_on", "/image@CameraCaptureBot", "hello there"};
+		StringBuilder builder = new StringBuilder("{\"ok\":true,\"result\":[");
+		for (int i = 0; i < count; i++) {
+			long chatId = 100000000L + i % 7;
+			if (i > 0)
+				builder.append(',');
+			builder.append("{\"update_id\":").append(800000000L + i)
+				.append(i % 7 == 6 ? ",\"edited_message\":" : ",\"message\":").append("{\"message_id\":").append(1000 + i)
+				.append(",\"from\":{\"id\":").append(chatId)
+				.append(",\"is_bot\":false,\"first_name\":\"Miri\",\"username\":\"miri\",\"language_code\":\"en\"}")
+				.append(",\"chat\":{\"id\":").append(chatId)
+				.append(",\"first_name\":\"Miri\",\"username\":\"miri\",\"type\":\"private\"}")
+				.append(",\"date\":").append(1514764800L + i);
+			if (i % 5 == 4) {
+				builder.append(",\"photo\":[{\"file_id\":\"AgADBAAD").append(i).append("-s\",\"file_size\":1410,\"width\":90,\"height\":67}")
+					.append(",{\"file_id\":\"AgADBAAD").append(i).append("\",\"file_size\":80123,\"width\":1280,\"height\":960}]")
+					.append(",\"caption\":\"look at this\"}}");
+				continue;
+			}
+			builder.append(",\"text\":\"").append(commands[i % commands.length]).append('"');
+			if (commands[i % commands.length].startsWith("/"))
+				builder.append(",\"entities\":[{\"offset\":0,\"length\":6,\"type\":\"bot_command\"}]");
+			builder.append("}}");
+		}
+		return builder.append("]}").toString();
+	}
+	
+}
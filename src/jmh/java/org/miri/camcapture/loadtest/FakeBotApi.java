@@ -0,0 +1,412 @@
+package org.miri.camcapture.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.miri.camcapture.util.DaemonThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand-in for the Telegram Bot API, for load testing without the real service. <br>
+ * Serves getUpdates (with long polling), sendMessage, sendPhoto, sendVideo and sendMediaGroup for any bot token.
+ *  Commands are injected as updates with {@link #sendCommand(String, String)}, and every delivered
+ *  message is reported to the {@link DeliveryListener}. <br>
+ * Once a webhook is set (setWebhook), updates are posted to it with its secret token instead,
+ *  and getUpdates is refused (HTTP 409) until the webhook is deleted (deleteWebhook), as Telegram does. <br>
+ * Send methods can be slowed down, throttled (HTTP 429 with retry_after) and failed (HTTP 500) at given rates.
+ *  getUpdates is never slowed down or failed.
+ * @author Miri Yehezkel
+ *
+ */
+public class FakeBotApi implements Closeable {
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool(new DaemonThreadFactory("fake-bot-api"));
+	private final Deque<PendingUpdate> updates = new ArrayDeque<>();
+	private final AtomicLong nextUpdateId = new AtomicLong(1);
+	private final AtomicLong nextMessageId = new AtomicLong(1);
+	private final Map<String, LongAdder> requests = new ConcurrentHashMap<>();
+	private final LongAdder throttled = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private volatile DeliveryListener listener = (method, chatId, text, caption) -> {};
+	private volatile long latency;
+	private volatile long latencyJitter;
+	private volatile double throttleRate;
+	private volatile double failureRate;
+	private volatile int retryAfter = 1;
+	//webhook URL and secret token, null unless set
+	private volatile String webhookUrl;
+	private volatile String webhookSecret;
+	
+	
+	/**
+	 * Receives messages delivered to chats.
+	 */
+	public interface DeliveryListener {
+	
+		/**
+		 * Called when a send method was served successfully.
+		 * @param method Bot API method (e.g. sendPhoto)
+		 * @param chatId chat message was sent to
+		 * @param text message text, {@code null} if none
+		 * @param caption media caption, {@code null} if none
+		 */
+		void onDelivery(String method, String chatId, String text, String caption);
+	}
+	
+	
+	/**
+	 * Creates server on localhost. Call {@link #start()} to start serving.
+	 * @param port port to listen on, {@code 0} for any free port
+	 * @throws IOException if unable to bind port
+	 */
+	public FakeBotApi(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 256);
+		server.createContext("/", this::handle);
+		server.setExecutor(executor);
+	}
+	
+	public void start() {
+		server.start();
+	}
+	
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+	
+	/**
+	 * Returns the base URL to set as the bot's <i>telegram.base.url</i>.
+	 * @return A String representing the base URL, to be followed by the bot token
+	 */
+	public String getBaseUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/bot";
+	}
+	
+	/**
+	 * Queues a text message from chat, returned by the next getUpdates.
+	 * @param chatId chat sending the message
+	 * @param text message text
+	 */
+	public void sendCommand(String chatId, String text) {
+		String webhook = webhookUrl;
+		long updateId = nextUpdateId.getAndIncrement();
+		long messageId = nextMessageId.getAndIncrement();
+		String json = "{\"update_id\":" + updateId + ",\"message\":{\"message_id\":" + messageId
+				+ ",\"from\":{\"id\":" + chatId + ",\"is_bot\":false,\"first_name\":\"Load\"}"
+				+ ",\"chat\":{\"id\":" + chatId + ",\"first_name\":\"Load\",\"type\":\"private\"}"
+				+ ",\"date\":" + System.currentTimeMillis() / 1000 + ",\"text\":\"" + escape(text) + "\"}}";
+		if (webhook != null) {
+			String secret = webhookSecret;
+			executor.execute(() -> postUpdate(webhook, secret, json));
+			return;
+		}
+		synchronized (updates) {
+			updates.addLast(new PendingUpdate(updateId, json));
+			updates.notifyAll();
+		}
+	}
+	
+	public void setDeliveryListener(DeliveryListener listener) {
+		this.listener = listener;
+	}
+	
+	/**
+	 * Sets latency added to every send method.
+	 * @param latency fixed latency (in ms)
+	 * @param jitter max random latency (in ms) added to the fixed latency
+	 */
+	public void setLatency(long latency, long jitter) {
+		this.latency = latency;
+		this.latencyJitter = jitter;
+	}
+	
+	/**
+	 * Sets rate of send methods answered with HTTP 429.
+	 * @param rate fraction (0-1) of throttled requests
+	 * @param retryAfter seconds to retry after, as returned to client
+	 */
+	public void setThrottleRate(double rate, int retryAfter) {
+		this.throttleRate = rate;
+		this.retryAfter = retryAfter;
+	}
+	
+	/**
+	 * Sets rate of send methods answered with HTTP 500.
+	 * @param rate fraction (0-1) of failed requests
+	 */
+	public void setFailureRate(double rate) {
+		this.failureRate = rate;
+	}
+	
+	/**
+	 * Returns number of requests served per method.
+	 * @return A Map of request counts by method name
+	 */
+	public Map<String, Long> getRequests() {
+		Map<String, Long> counts = new TreeMap<>();
+		requests.forEach((method, count) -> counts.put(method, count.sum()));
+		return counts;
+	}
+	
+	public long getThrottled() {
+		return throttled.sum();
+	}
+	
+	public long getFailed() {
+		return failed.sum();
+	}
+	
+	
+	/**
+	 * Handles a Bot API request, in the form /bot&lt;token&gt;/&lt;method&gt;.
+	 * @param exchange HTTP exchange
+	 * @throws IOException if unable to read request or write response
+	 */
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			String path = exchange.getRequestURI().getPath();
+			String method = path.substring(path.lastIndexOf('/') + 1);
+			byte[] body = readBody(exchange.getRequestBody());
+			requests.computeIfAbsent(method, key -> new LongAdder()).increment();
+			if ("getUpdates".equals(method)) {
+				if (webhookUrl != null)
+					respond(exchange, 409, "{\"ok\":false,\"error_code\":409,"
+							+ "\"description\":\"Conflict: can't use getUpdates method while webhook is active\"}");
+				else
+					respond(exchange, 200, getUpdates(parseQuery(exchange.getRequestURI().getRawQuery())));
+				return;
+			}
+			if ("setWebhook".equals(method) || "deleteWebhook".equals(method)) {
+				String form = new String(body, StandardCharsets.ISO_8859_1);
+				webhookSecret = getFormField(form, "secret_token");
+				webhookUrl = "setWebhook".equals(method) ? getFormField(form, "url") : null;
+				respond(exchange, 200, "{\"ok\":true,\"result\":true}");
+				return;
+			}
+			if (! method.startsWith("send")) {
+				respond(exchange, 404, "{\"ok\":false,\"error_code\":404,\"description\":\"Not Found\"}");
+				return;
+			}
+			injectLatency();
+			double draw = ThreadLocalRandom.current().nextDouble();
+			if (draw < throttleRate) {
+				throttled.increment();
+				respond(exchange, 429, "{\"ok\":false,\"error_code\":429,\"description\":\"Too Many Requests: retry after "
+						+ retryAfter + "\",\"parameters\":{\"retry_after\":" + retryAfter + "}}");
+				return;
+			}
+			if (draw < throttleRate + failureRate) {
+				failed.increment();
+				respond(exchange, 500, "{\"ok\":false,\"error_code\":500,\"description\":\"Internal Server Error\"}");
+				return;
+			}
+			String form = new String(body, StandardCharsets.ISO_8859_1);
+			String chatId = getFormField(form, "chat_id");
+			respond(exchange, 200, "{\"ok\":true,\"result\":" + createResult(method, chatId, form) + "}");
+			listener.onDelivery(method, chatId, getFormField(form, "text"), getFormField(form, "caption"));
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	/**
+	 * Posts an update to the webhook, as Telegram does.
+	 * @param url webhook URL
+	 * @param secret webhook secret token
+	 * @param json update JSON
+	 */
+	private void postUpdate(String url, String secret, String json) {
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", "application/json");
+			if (secret != null)
+				connection.setRequestProperty("X-Telegram-Bot-Api-Secret-Token", secret);
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(json.getBytes(StandardCharsets.UTF_8));
+			}
+			int status = connection.getResponseCode();
+			if (status != 200)
+				System.err.println("Webhook answered " + status);
+			connection.disconnect();
+		} catch (IOException exc) {
+			System.err.println("Unable to post update to webhook: " + exc.getMessage());
+		}
+	}
+	
+	/**
+	 * Returns queued updates from given offset, waiting for updates until timeout if there are none.
+	 * @param params request parameters (offset, timeout, limit)
+	 * @return A String representing the getUpdates result
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private String getUpdates(Map<String, String> params) throws InterruptedException {
+		long offset = Long.parseLong(params.getOrDefault("offset", "0"));
+		long deadline = System.currentTimeMillis() + Long.parseLong(params.getOrDefault("timeout", "0")) * 1000;
+		int limit = Integer.parseInt(params.getOrDefault("limit", "100"));
+		StringBuilder result = new StringBuilder("{\"ok\":true,\"result\":[");
+		synchronized (updates) {
+			//confirmed updates are forgotten
+			while (! updates.isEmpty() && updates.peekFirst().id < offset)
+				updates.pollFirst();
+			long remaining;
+			while (updates.isEmpty() && (remaining = deadline - System.currentTimeMillis()) > 0)
+				updates.wait(remaining);
+			Iterator<PendingUpdate> iterator = updates.iterator();
+			for (int i = 0; i < limit && iterator.hasNext(); i++) {
+				if (i > 0)
+					result.append(',');
+				result.append(iterator.next().json);
+			}
+		}
+		return result.append("]}").toString();
+	}
+	
+	/**
+	 * Creates the result of a send method.
+	 * @param method Bot API method
+	 * @param chatId chat message was sent to
+	 * @param form request body
+	 * @return A String representing the result JSON
+	 */
+	private String createResult(String method, String chatId, String form) {
+		switch (method) {
+			case "sendPhoto":
+				return createMessage(chatId, "photo");
+			case "sendVideo":
+				return createMessage(chatId, "video");
+			case "sendMediaGroup":
+				StringBuilder messages = new StringBuilder("[");
+				String media = getFormField(form, "media");
+				int count = media == null ? 0 : media.split("\"type\"").length - 1;
+				for (int i = 0; i < count; i++)
+					messages.append(i > 0 ? "," : "").append(createMessage(chatId, "photo"));
+				return messages.append(']').toString();
+			default:
+				return createMessage(chatId, null);
+		}
+	}
+	
+	/**
+	 * Creates a message, with a photo (in two sizes) or video if given.
+	 * @param chatId chat message was sent to
+	 * @param media "photo", "video" or {@code null}
+	 * @return A String representing the message JSON
+	 */
+	private String createMessage(String chatId, String media) {
+		long messageId = nextMessageId.getAndIncrement();
+		StringBuilder message = new StringBuilder("{\"message_id\":").append(messageId)
+				.append(",\"chat\":{\"id\":").append(chatId).append(",\"type\":\"private\"},\"date\":")
+				.append(System.currentTimeMillis() / 1000);
+		if ("photo".equals(media))
+			message.append(",\"photo\":[{\"file_id\":\"photo-").append(messageId).append("-s\",\"width\":90,\"height\":67}")
+				.append(",{\"file_id\":\"photo-").append(messageId).append("\",\"width\":1280,\"height\":720}]");
+		else if ("video".equals(media))
+			message.append(",\"video\":{\"file_id\":\"video-").append(messageId).append("\"}");
+		return message.append('}').toString();
+	}
+	
+	private void injectLatency() throws InterruptedException {
+		long delay = latency + (latencyJitter > 0 ? ThreadLocalRandom.current().nextLong(latencyJitter + 1) : 0);
+		if (delay > 0)
+			Thread.sleep(delay);
+	}
+	
+	private void respond(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] response = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, response.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(response);
+		}
+	}
+	
+	
+	/**
+	 * Returns value of a text field in a multipart/form-data body.
+	 * @param form body, decoded as ISO-8859-1
+	 * @param name field name
+	 * @return A String representing the field's value, {@code null} if not found
+	 */
+	private static String getFormField(String form, String name) {
+		int field = form.indexOf("name=\"" + name + "\"");
+		if (field < 0)
+			return null;
+		int start = form.indexOf("\r\n\r\n", field);
+		int end = start < 0 ? -1 : form.indexOf("\r\n--", start + 4);
+		if (end < 0)
+			return null;
+		return new String(form.substring(start + 4, end).getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+	}
+	
+	private static Map<String, String> parseQuery(String query) {
+		Map<String, String> params = new HashMap<>();
+		if (query == null)
+			return params;
+		for (String param : query.split("&")) {
+			int separator = param.indexOf('=');
+			if (separator > 0) {
+				try {
+					params.put(param.substring(0, separator), URLDecoder.decode(param.substring(separator + 1), "UTF-8"));
+				} catch (IOException exc) {
+					throw new IllegalStateException(exc);
+				}
+			}
+		}
+		return params;
+	}
+	
+	private static byte[] readBody(InputStream in) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1)
+			body.write(buffer, 0, read);
+		return body.toByteArray();
+	}
+	
+	private static String escape(String text) {
+		return text.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+	
+	
+	/**
+	 * An update waiting to be fetched.
+	 */
+	private static class PendingUpdate {
+		private final long id;
+		private final String json;
+	
+		PendingUpdate(long id, String json) {
+			this.id = id;
+			this.json = json;
+		}
+	}
+	
+}
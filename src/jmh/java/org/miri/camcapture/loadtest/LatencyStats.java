@@ -0,0 +1,52 @@
+package org.miri.camcapture.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Collects latency samples and reports their percentiles. Thread safe.
+ * @author Miri Yehezkel
+ *
+ */
+public class LatencyStats {
+	private long[] samples = new long[1024];
+	private int count;
+	
+	
+	/**
+	 * Adds a sample.
+	 * @param nanos latency (in ns)
+	 */
+	public synchronized void add(long nanos) {
+		if (count == samples.length)
+			samples = Arrays.copyOf(samples, count * 2);
+		samples[count++] = nanos;
+	}
+	
+	public synchronized int getCount() {
+		return count;
+	}
+	
+	/**
+	 * Returns a percentile of the samples (nearest rank).
+	 * @param percentile percentile (0-100)
+	 * @return A double representing the latency (in ms), {@code 0} if there are no samples
+	 */
+	public synchronized double getPercentile(double percentile) {
+		if (count == 0)
+			return 0;
+		long[] sorted = Arrays.copyOf(samples, count);
+		Arrays.sort(sorted);
+		int rank = (int) Math.ceil(percentile / 100 * count);
+		return sorted[Math.max(0, Math.min(count - 1, rank - 1))] / 1e6;
+	}
+	
+	/**
+	 * Returns a summary line of the samples: count, p50, p90, p99 and max latency.
+	 * @return A String representing the summary
+	 */
+	public synchronized String summarize() {
+		return String.format("%7d %10.1f %10.1f %10.1f %10.1f", count, getPercentile(50), getPercentile(90), 
+				getPercentile(99), getPercentile(100));
+	}
+	
+}
@@ -0,0 +1,289 @@
+package org.miri.camcapture.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.miri.camcapture.api.BotCommands;
+import org.miri.camcapture.api.ITelegram;
+import org.miri.camcapture.api.SettingKeys;
+import org.miri.camcapture.exceptions.BotTokenAccessException;
+import org.miri.camcapture.impl.Telegram;
+import org.miri.camcapture.impl.WebhookServer;
+import org.miri.camcapture.util.DaemonThreadFactory;
+
+/**
+ * Runs the bot end-to-end against a {@link FakeBotApi}, with hundreds of simulated chats issuing commands
+ *  concurrently, and reports command-to-delivery latency and throughput. <br>
+ * Each chat sends a command, waits until its result is delivered (or times out), thinks and sends the next one.
+ *  Latency is measured from queuing the command as an update to the fake API receiving its result -
+ *  the photo for <i>/image</i>, the video for <i>/video</i> and the confirmation for <i>/detecton</i>
+ *  (chats toggle detection on and off). <br>
+ * Frames come from a replay source unless <i>camera.source</i> is set, so no camera is needed. <br>
+ * Updates are polled, or posted to the bot's webhook (on a free local port) with <i>--webhook=true</i>. <br>
+ * Options (as <i>--name=value</i>): chats (200), duration (60 s), warmup (10 s), think (2000 ms),
+ *  timeout (60000 ms), mix (image=70,video=10,detect=20), video (command sent for video, "/video 2 5"),
+ *  latency (50 ms), jitter (20 ms), throttle (0, fraction answered with 429), failure (0, fraction answered with 500),
+ *  webhook (false).
+ * @author Miri Yehezkel
+ *
+ */
+public class LoadGenerator {
+	private static final String botTokenFileName = "CameraCaptureBotToken";
+	private static final String[] kinds = {"image", "video", "detect"};
+	private final FakeBotApi api;
+	private final Map<String, String> options;
+	private final ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(2, new DaemonThreadFactory("load-chats"));
+	private final Map<String, SimulatedChat> chats = new ConcurrentHashMap<>();
+	private final Map<String, LatencyStats> latencies = new LinkedHashMap<>();
+	private final LatencyStats totalLatency = new LatencyStats();
+	private final LongAdder timeouts = new LongAdder();
+	private final LongAdder motionAlerts = new LongAdder();
+	private final int[] mix = new int[3];
+	private final long think;
+	private final long timeout;
+	private final String videoCommand;
+	private volatile long measureStart;
+	private volatile boolean running = true;
+	
+	
+	LoadGenerator(FakeBotApi api, Map<String, String> options) {
+		this.api = api;
+		this.options = options;
+		think = getLong("think", 2000);
+		timeout = getLong("timeout", 60000);
+		videoCommand = options.getOrDefault("video", "/video 2 5");
+		for (String part : options.getOrDefault("mix", "image=70,video=10,detect=20").split(",")) {
+			String[] weight = part.split("=");
+			for (int i = 0; i < kinds.length; i++)
+				if (kinds[i].equals(weight[0].trim()))
+					mix[i] = Integer.parseInt(weight[1].trim());
+		}
+		for (String kind : kinds)
+			latencies.put(kind, new LatencyStats());
+	}
+	
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<>();
+		for (String arg : args) {
+			if (! arg.startsWith("--") || ! arg.contains("=")) {
+				System.err.println("Unknown option " + arg + ", expected --name=value");
+				System.exit(2);
+			}
+			options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+		}
+		FakeBotApi api = new FakeBotApi(0);
+		api.start();
+		configureBot(api.getBaseUrl(), Boolean.parseBoolean(options.getOrDefault("webhook", "false")));
+		new LoadGenerator(api, options).run();
+		//exits without stopping the fake API, so commands still in flight don't fail
+		System.exit(0);
+	}
+	
+	
+	/**
+	 * Runs the load and prints the report.
+	 * @throws InterruptedException if interrupted while running
+	 * @throws BotTokenAccessException if unable to access bot token
+	 */
+	void run() throws InterruptedException, BotTokenAccessException {
+		int chatCount = (int) getLong("chats", 200);
+		long warmup = getLong("warmup", 10) * 1000;
+		long duration = getLong("duration", 60) * 1000;
+		api.setLatency(getLong("latency", 50), getLong("jitter", 20));
+		api.setThrottleRate(Double.parseDouble(options.getOrDefault("throttle", "0")), 1);
+		api.setFailureRate(Double.parseDouble(options.getOrDefault("failure", "0")));
+		api.setDeliveryListener(this::onDelivery);
+		if (! WebhookServer.INSTANCE.start(Telegram.INSTANCE))
+			startPolling(Telegram.INSTANCE);
+	
+		System.out.printf("Running %d chats for %d s (after %d s warmup) against %s%n", chatCount, duration / 1000,
+				warmup / 1000, api.getBaseUrl());
+		measureStart = Long.MAX_VALUE;
+		for (int i = 0; i < chatCount; i++) {
+			SimulatedChat chat = new SimulatedChat(String.valueOf(100000000L + i), new Random(i));
+			chats.put(chat.chatId, chat);
+			//spreads first commands over a think time, so chats don't start at once
+			scheduler.schedule(chat::issue, i * Math.max(1, think) / chatCount, TimeUnit.MILLISECONDS);
+		}
+		Thread.sleep(warmup);
+		measureStart = System.nanoTime();
+		Thread.sleep(duration);
+		long measured = System.nanoTime() - measureStart;
+		running = false;
+		report(measured);
+	}
+	
+	/**
+	 * Records a delivered message.
+	 */
+	private void onDelivery(String method, String chatId, String text, String caption) {
+		if (caption != null || "sendMediaGroup".equals(method)) {
+			motionAlerts.increment();
+			return;
+		}
+		SimulatedChat chat = chats.get(chatId);
+		if (chat != null)
+			chat.onDelivery(method, text);
+	}
+	
+	/**
+	 * Prints latency percentiles per command and throughput.
+	 * @param measured measured time (in ns)
+	 */
+	private void report(long measured) {
+		double seconds = measured / 1e9;
+		System.out.println();
+		System.out.printf("%-8s %7s %10s %10s %10s %10s%n", "command", "count", "p50 (ms)", "p90 (ms)", "p99 (ms)", "max (ms)");
+		latencies.forEach((kind, stats) -> System.out.printf("%-8s %s%n", kind, stats.summarize()));
+		System.out.printf("%-8s %s%n", "all", totalLatency.summarize());
+		System.out.println();
+		System.out.printf("Throughput: %.1f commands/s, timeouts: %d, motion alerts: %d%n",
+				totalLatency.getCount() / seconds, timeouts.sum(), motionAlerts.sum());
+		System.out.printf("Fake API requests: %s, throttled: %d, failed: %d%n", api.getRequests(), api.getThrottled(),
+				api.getFailed());
+	}
+	
+	/**
+	 * Polls updates from fake API, as the bot's main loop does.
+	 * @param telegram bot to poll with
+	 */
+	private void startPolling(ITelegram telegram) {
+		new DaemonThreadFactory("load-poller").newThread(() -> {
+			while (running) {
+				try {
+					telegram.getUpdates();
+				} catch (Exception exc) {
+					System.err.println("Unable to get updates: " + exc.getMessage());
+				}
+			}
+		}).start();
+	}
+	
+	private long getLong(String name, long defaultValue) {
+		return options.containsKey(name) ? Long.parseLong(options.get(name)) : defaultValue;
+	}
+	
+	/**
+	 * Points the bot to the fake API and to a replay camera, unless set otherwise by system properties.
+	 * Creates a bot token file if there is none, since the fake API accepts any token.
+	 * @param baseUrl fake API base URL
+	 * @param webhook {@code true} to receive updates by a webhook on a free local port
+	 * @throws IOException if unable to create token file or find a free port
+	 */
+	private static void configureBot(String baseUrl, boolean webhook) throws IOException {
+		System.setProperty(SettingKeys.BASE_URL, baseUrl);
+		if (webhook) {
+			int port;
+			try (ServerSocket socket = new ServerSocket(0)) {
+				port = socket.getLocalPort();
+			}
+			System.setProperty(SettingKeys.WEBHOOK_HOST, "127.0.0.1");
+			System.setProperty(SettingKeys.WEBHOOK_PORT, String.valueOf(port));
+			System.setProperty(SettingKeys.WEBHOOK_URL, "http://127.0.0.1:" + port + "/webhook");
+		}
+		setDefault(SettingKeys.CAMERA_SOURCE, "replay");
+		setDefault(SettingKeys.REPLAY_WIDTH, "640");
+		setDefault(SettingKeys.REPLAY_HEIGHT, "480");
+		setDefault(SettingKeys.ARCHIVE_ENABLED, "false");
+		setDefault(SettingKeys.POLL_TIMEOUT, "5");
+		setDefault(SettingKeys.MAX_CONNECTIONS, "50");
+		File tokenFile = new File(botTokenFileName);
+		if (! tokenFile.exists()) {
+			Files.write(tokenFile.toPath(), "load-test".getBytes(StandardCharsets.UTF_8));
+			tokenFile.deleteOnExit();
+		}
+	}
+	
+	private static void setDefault(String key, String value) {
+		if (System.getProperty(key) == null)
+			System.setProperty(key, value);
+	}
+	
+	
+	/**
+	 * A chat issuing one command at a time.
+	 */
+	private class SimulatedChat {
+		private final String chatId;
+		private final Random random;
+		private boolean detecting;
+		private int pendingKind = -1;
+		private long issuedAt;
+		private ScheduledFuture<?> timeoutTask;
+	
+		SimulatedChat(String chatId, Random random) {
+			this.chatId = chatId;
+			this.random = random;
+		}
+	
+		/**
+		 * Sends the next command, picked by the command mix.
+		 */
+		synchronized void issue() {
+			if (! running)
+				return;
+			int draw = random.nextInt(Math.max(1, mix[0] + mix[1] + mix[2]));
+			pendingKind = draw < mix[0] ? 0 : draw < mix[0] + mix[1] ? 1 : 2;
+			String command;
+			if (pendingKind == 0)
+				command = "/" + BotCommands.IMAGE;
+			else if (pendingKind == 1)
+				command = videoCommand;
+			else
+				command = "/" + (detecting ? BotCommands.DETECT_OFF : BotCommands.DETECT_ON);
+			issuedAt = System.nanoTime();
+			timeoutTask = scheduler.schedule(this::onTimeout, timeout, TimeUnit.MILLISECONDS);
+			api.sendCommand(chatId, command);
+		}
+	
+		/**
+		 * Completes pending command if message is its result.
+		 */
+		synchronized void onDelivery(String method, String text) {
+			boolean completed = (pendingKind == 0 && "sendPhoto".equals(method))
+					|| (pendingKind == 1 && "sendVideo".equals(method))
+					|| (pendingKind == 2 && "sendMessage".equals(method) && text != null && text.startsWith("Motion detection"));
+			if (! completed)
+				return;
+			long latency = System.nanoTime() - issuedAt;
+			if (issuedAt >= measureStart) {
+				latencies.get(kinds[pendingKind]).add(latency);
+				totalLatency.add(latency);
+			}
+			if (pendingKind == 2)
+				detecting = ! detecting;
+			pendingKind = -1;
+			timeoutTask.cancel(false);
+			scheduleNext();
+		}
+	
+		synchronized void onTimeout() {
+			if (pendingKind < 0)
+				return;
+			if (issuedAt >= measureStart)
+				timeouts.increment();
+			pendingKind = -1;
+			scheduleNext();
+		}
+	
+		private void scheduleNext() {
+			//think time varies between half and one and a half of the configured time
+			long delay = think / 2 + (think > 0 ? (long) (random.nextDouble() * think) : 0);
+			scheduler.schedule(this::issue, delay, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+}
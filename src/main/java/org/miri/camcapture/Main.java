@@ -1,28 +1,59 @@
 package org.miri.camcapture;
 
 import org.miri.camcapture.api.ITelegram;
+import org.miri.camcapture.api.SettingKeys;
 import org.miri.camcapture.exceptions.BotTokenAccessException;
+import org.miri.camcapture.impl.LiveViewServer;
+import org.miri.camcapture.impl.MetricsServer;
 import org.miri.camcapture.impl.Telegram;
+import org.miri.camcapture.impl.WebhookServer;
+import org.miri.camcapture.util.Settings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Checks for updates from users.
+ * Checks for updates from users - received by the webhook if one is set, polled otherwise.
  * @author Miri Yehezkel
  *
  */
 public class Main {
 	private final Logger logger = LoggerFactory.getLogger(Main.class);
 	private ITelegram telegram = Telegram.INSTANCE;
+	//delay between polls (in ms); long polling waits on Telegram's side so no delay is needed by default
+	private final long pollInterval = Settings.getLong(SettingKeys.POLL_INTERVAL, 0);
 	
 	/**
-	 * Retrieves updates from telegram.
+	 * Starts receiving updates posted to the webhook.
+	 * @return {@code true} if receiving updates, {@code false} if updates should be polled instead
+	 */
+	public boolean receiveUpdates() {
+		try {
+			return WebhookServer.INSTANCE.start(telegram);
+		} catch (BotTokenAccessException exc) {
+			//unable to proceed without bot token
+			logger.error(exc.getMessage(), exc);
+			System.exit(1);
+			return false;
+		}
+	}
+	
+	/**
+	 * Retrieves updates from telegram. Removes the webhook first, if one was set, since Telegram doesn't 
+	 *  return updates while a webhook is registered.
 	 */
 	public void getUpdates() {
+		if (WebhookServer.INSTANCE.isEnabled()) {
+			try {
+				telegram.deleteWebhook();
+			} catch (Exception exc) {
+				logger.warn("Unable to delete webhook: {}", exc.getMessage());
+			}
+		}
 		while(true) {
 			try {
 				telegram.getUpdates();
-				Thread.sleep(1000);
+				if (pollInterval > 0)
+					Thread.sleep(pollInterval);
 			} catch (BotTokenAccessException exc) {
 				//unable to proceed without bot token
 				logger.error(exc.getMessage(), exc);
@@ -38,7 +69,12 @@ public class Main {
 	}
 	
 	public static void main(String[] args) {
-		new Main().getUpdates();
+		MetricsServer.INSTANCE.start();
+		LiveViewServer.INSTANCE.start();
+		Main main = new Main();
+		//the webhook server's dispatcher thread keeps running once main returns
+		if (! main.receiveUpdates())
+			main.getUpdates();
 	}
 	
 	
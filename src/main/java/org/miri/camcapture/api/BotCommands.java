@@ -12,6 +12,8 @@ public class BotCommands {
 	public static final String VIDEO 		= "video";
 	public static final String DETECT_ON 	= "detecton";
 	public static final String DETECT_OFF	= "detectoff";
+	public static final String STATS 		= "stats";
+	public static final String TIMELAPSE 	= "timelapse";
 	
 	
 }
@@ -0,0 +1,72 @@
+package org.miri.camcapture.api;
+
+/**
+ * Represents captured media (image or video) held in memory, ready to be sent without touching the disk.
+ * @author Miri Yehezkel
+ *
+ */
+public class Capture {
+	private final String chatId;
+	private final long time;
+	private final byte[] data;
+	private final String fileType;
+	private final String mimeType;
+	private volatile String fileId;
+	
+	/**
+	 * @param chatId Id of telegram chat the media was captured for
+	 * @param time capture time (in ms)
+	 * @param data encoded media
+	 * @param fileType file type of media (.jpg, .png, .mp4 etc.)
+	 * @param mimeType MIME type of media
+	 */
+	public Capture(String chatId, long time, byte[] data, String fileType, String mimeType) {
+		this.chatId = chatId;
+		this.time = time;
+		this.data = data;
+		this.fileType = fileType;
+		this.mimeType = mimeType;
+	}
+	
+	public String getChatId() {
+		return chatId;
+	}
+	
+	public long getTime() {
+		return time;
+	}
+	
+	public byte[] getData() {
+		return data;
+	}
+	
+	public String getFileType() {
+		return fileType;
+	}
+	
+	public String getMimeType() {
+		return mimeType;
+	}
+	
+	/**
+	 * Returns the id Telegram assigned to the media once uploaded. 
+	 * Lets the same media be sent to other chats without uploading it again.
+	 * @return A String representing the file id, {@code null} if not uploaded yet
+	 */
+	public String getFileId() {
+		return fileId;
+	}
+	
+	public void setFileId(String fileId) {
+		this.fileId = fileId;
+	}
+	
+	/**
+	 * Returns a file name for the media, used when uploading it.
+	 * @return A String representing the file name
+	 */
+	public String getFileName() {
+		return time + fileType;
+	}
+	
+}
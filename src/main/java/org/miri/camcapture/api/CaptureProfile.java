@@ -0,0 +1,56 @@
+package org.miri.camcapture.api;
+
+import org.miri.camcapture.util.Settings;
+
+/**
+ * Defines the resolutions frames are consumed at. <br>
+ * The camera captures at a single resolution; each consumer reads frames downscaled to its profile's max width
+ *  (keeping the aspect ratio), so motion detection, video and live view don't process more pixels than they need.
+ * @author Miri Yehezkel
+ * @see IFrameBuffer#getNextFrame(long, Frame, long, CaptureProfile)
+ */
+public enum CaptureProfile {
+	SNAPSHOT(SettingKeys.PROFILE_SNAPSHOT_WIDTH, 0),
+	VIDEO(SettingKeys.PROFILE_VIDEO_WIDTH, 1280),
+	DETECTION(SettingKeys.PROFILE_DETECTION_WIDTH, 320),
+	LIVE(SettingKeys.PROFILE_LIVE_WIDTH, 640);
+	
+	private final int maxWidth;
+	
+	private CaptureProfile(String key, int defaultWidth) {
+		this.maxWidth = Math.max(0, Settings.getInt(key, defaultWidth));
+	}
+	
+	/**
+	 * Returns max width of frames read with profile.
+	 * @return An int representing the max width, {@code 0} for the camera's resolution
+	 */
+	public int getMaxWidth() {
+		return maxWidth;
+	}
+	
+	/**
+	 * Returns width of frames read with profile. Frames are never upscaled.
+	 * @param sourceWidth width of captured frames
+	 * @return An int representing the width (even, if downscaled)
+	 */
+	public int getWidth(int sourceWidth) {
+		if (maxWidth == 0 || sourceWidth <= maxWidth)
+			return sourceWidth;
+		return Math.max(2, maxWidth & ~1);
+	}
+	
+	/**
+	 * Returns height of frames read with profile, keeping the aspect ratio of captured frames.
+	 * @param sourceWidth width of captured frames
+	 * @param sourceHeight height of captured frames
+	 * @return An int representing the height (even, if downscaled)
+	 */
+	public int getHeight(int sourceWidth, int sourceHeight) {
+		int width = getWidth(sourceWidth);
+		if (width == sourceWidth)
+			return sourceHeight;
+		return Math.max(2, (int) ((long) sourceHeight * width / sourceWidth) & ~1);
+	}
+	
+}
@@ -0,0 +1,139 @@
+package org.miri.camcapture.api;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+
+/**
+ * Represents a single frame captured from camera. <br>
+ * Frames are mutable so they can be reused by consumers reading a stream of frames.
+ * @author Miri Yehezkel
+ * @see IFrameBuffer
+ */
+public class Frame {
+	private BufferedImage image;
+	private long timestamp;
+	private long sequence;
+	//source pixel (byte offset) sampled for each column / row when scaling, and the source size they map
+	private int[] scaleColumns;
+	private int[] scaleRows;
+	private int scaledFromWidth;
+	private int scaledFromHeight;
+	
+	/**
+	 * Creates an empty frame of given size.
+	 * @param width frame width
+	 * @param height frame height
+	 */
+	public Frame(int width, int height) {
+		image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		sequence = -1;
+	}
+	
+	/**
+	 * Returns the frame's image. The image is of type {@link BufferedImage#TYPE_3BYTE_BGR}.
+	 * @return A {@link BufferedImage} holding the frame's pixels
+	 */
+	public BufferedImage getImage() {
+		return image;
+	}
+	
+	/**
+	 * Returns time frame was captured.
+	 * @return A long representing capture time (in ms)
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+	
+	/**
+	 * Returns the frame's position in the camera's stream of frames.
+	 * @return A long representing the frame's sequence number, {@code -1} if frame is empty
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+	
+	/**
+	 * Copies image into frame, converting it if needed.
+	 * @param source image to copy
+	 * @param timestamp time image was captured
+	 * @param sequence sequence number of image
+	 */
+	public void set(BufferedImage source, long timestamp, long sequence) {
+		if (source.getWidth() != image.getWidth() || source.getHeight() != image.getHeight())
+			image = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+		if (source.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+			byte[] from = ((DataBufferByte) source.getRaster().getDataBuffer()).getData();
+			byte[] to = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+			System.arraycopy(from, 0, to, 0, to.length);
+		} else {
+			Graphics2D graphics = image.createGraphics();
+			graphics.drawImage(source, 0, 0, null);
+			graphics.dispose();
+		}
+		this.timestamp = timestamp;
+		this.sequence = sequence;
+	}
+	
+	/**
+	 * Copies another frame into this frame.
+	 * @param other frame to copy
+	 */
+	public void copyFrom(Frame other) {
+		set(other.image, other.timestamp, other.sequence);
+	}
+	
+	/**
+	 * Copies another frame into this frame, scaled to this frame's size. 
+	 * Each pixel is sampled from the nearest source pixel, so only the pixels kept are read - 
+	 *  downscaling costs a fraction of a full-size copy.
+	 * @param other frame to copy
+	 */
+	public void scaleFrom(Frame other) {
+		int sourceWidth = other.image.getWidth();
+		int sourceHeight = other.image.getHeight();
+		int width = image.getWidth();
+		int height = image.getHeight();
+		if (sourceWidth == width && sourceHeight == height) {
+			copyFrom(other);
+			return;
+		}
+		if (sourceWidth != scaledFromWidth || sourceHeight != scaledFromHeight)
+			mapScaling(sourceWidth, sourceHeight);
+		byte[] from = ((DataBufferByte) other.image.getRaster().getDataBuffer()).getData();
+		byte[] to = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+		int[] columns = scaleColumns;
+		for (int y = 0, i = 0; y < height; y++) {
+			int row = scaleRows[y];
+			for (int x = 0; x < width; x++, i += 3) {
+				int pixel = row + columns[x];
+				to[i] = from[pixel];
+				to[i + 1] = from[pixel + 1];
+				to[i + 2] = from[pixel + 2];
+			}
+		}
+		this.timestamp = other.timestamp;
+		this.sequence = other.sequence;
+	}
+	
+	
+	/**
+	 * Maps each column and row of this frame to the source pixel at its center.
+	 * @param sourceWidth width of source frames
+	 * @param sourceHeight height of source frames
+	 */
+	private void mapScaling(int sourceWidth, int sourceHeight) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		scaleColumns = new int[width];
+		scaleRows = new int[height];
+		for (int x = 0; x < width; x++)
+			scaleColumns[x] = (int) (((2L * x + 1) * sourceWidth / (2L * width))) * 3;
+		for (int y = 0; y < height; y++)
+			scaleRows[y] = (int) (((2L * y + 1) * sourceHeight / (2L * height))) * sourceWidth * 3;
+		scaledFromWidth = sourceWidth;
+		scaledFromHeight = sourceHeight;
+	}
+	
+}
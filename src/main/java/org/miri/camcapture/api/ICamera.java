@@ -15,6 +15,18 @@ import org.miri.camcapture.exceptions.TelegramException;
  */
 public interface ICamera {
 	
+	/**
+	 * Returns camera number, as used to target the camera in commands.
+	 * @return An int representing the camera number (starting at 1)
+	 */
+	int getId();
+	
+	/**
+	 * Returns camera name.
+	 * @return A String representing the device name
+	 */
+	String getName();
+	
 	/**
 	 * Captures image from camera and saves it to the local machine.
 	 * @param chatId Id of telegram chat
@@ -33,13 +45,62 @@ public interface ICamera {
 	 */
 	File saveImage(BufferedImage img, String chatId) throws FileAccessException;
 	
+	/**
+	 * Captures image from camera into memory. Saving it to the local machine is optional and done in the background.
+	 * @param chatId Id of telegram chat
+	 * @return A {@link Capture} holding the encoded image
+	 * @throws CameraException if unable to complete capture
+	 * @throws FileAccessException if unable to encode image
+	 */
+	Capture captureImage(String chatId) throws CameraException, FileAccessException;
+	
+	/**
+	 * Encodes {@link BufferedImage} into memory. Saving it to the local machine is optional and done in the background.
+	 * @param img {@link BufferedImage} to encode
+	 * @param chatId Id of telegram chat
+	 * @return A {@link Capture} holding the encoded image
+	 * @throws FileAccessException if unable to encode image
+	 */
+	Capture captureImage(BufferedImage img, String chatId) throws FileAccessException;
+	
 	/**
 	 * Captures a series of images from camera and saves it as a video to the local machine.
 	 * @param chatId Id of telegram chat
 	 * @return A {@link File} representing the location of the video
+	 * @throws CameraException if unable to capture frames
 	 * @throws TelegramException if unable to complete video capture
 	 * @throws FileAccessException if unable to save file
 	 */
-	File saveVideo(String chatId) throws TelegramException, FileAccessException;
+	File saveVideo(String chatId) throws CameraException, TelegramException, FileAccessException;
+	
+	/**
+	 * Captures a series of images from camera with given options and saves it as a video to the local machine.
+	 * @param chatId Id of telegram chat
+	 * @param options requested video length, frame rate and bit rate
+	 * @return A {@link File} representing the location of the video
+	 * @throws CameraException if unable to capture frames
+	 * @throws TelegramException if unable to complete video capture
+	 * @throws FileAccessException if unable to save file
+	 */
+	File saveVideo(String chatId, VideoOptions options) throws CameraException, TelegramException, FileAccessException;
+	
+	/**
+	 * Captures a series of images from camera with given options into an in-memory video.
+	 * Saving it to the local machine is optional and done in the background.
+	 * @param chatId Id of telegram chat
+	 * @param options requested video length, frame rate and bit rate
+	 * @return A {@link Capture} holding the encoded video
+	 * @throws CameraException if unable to capture frames
+	 * @throws TelegramException if unable to complete video capture
+	 * @throws FileAccessException if unable to encode video
+	 */
+	Capture captureVideo(String chatId, VideoOptions options) throws CameraException, TelegramException, FileAccessException;
+	
+	/**
+	 * Returns the buffer of frames continuously captured from camera.
+	 * @return An {@link IFrameBuffer} object
+	 * @throws CameraException if camera isn't available
+	 */
+	IFrameBuffer getFrameBuffer() throws CameraException;
 	
 }
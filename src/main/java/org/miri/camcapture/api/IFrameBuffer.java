@@ -0,0 +1,72 @@
+package org.miri.camcapture.api;
+
+import java.util.List;
+
+import org.miri.camcapture.exceptions.CameraException;
+
+/**
+ * Defines a buffer of recently captured frames, continuously filled from camera. <br>
+ * Allows several consumers to share a single stream of frames instead of each reading from camera.
+ * @author Miri Yehezkel
+ *
+ */
+public interface IFrameBuffer {
+	
+	/**
+	 * Returns a copy of the most recent frame. Waits for the first frame if none was captured yet.
+	 * @return A {@link Frame} holding the latest frame
+	 * @throws CameraException if no frame is captured in time
+	 */
+	Frame getLatestFrame() throws CameraException;
+	
+	/**
+	 * Returns a copy of the most recent frame, downscaled to given profile. Waits for the first frame if none was captured yet.
+	 * @param profile profile of consumer
+	 * @return A {@link Frame} holding the latest frame
+	 * @throws CameraException if no frame is captured in time
+	 */
+	Frame getLatestFrame(CaptureProfile profile) throws CameraException;
+	
+	/**
+	 * Copies the first frame captured after given sequence into given frame. 
+	 * Waits for the frame if it wasn't captured yet. If the frame is no longer buffered, 
+	 *  the oldest buffered frame is copied.
+	 * @param sequence sequence of the previously read frame, {@code -1} to read the latest frame
+	 * @param reuse frame to copy into, {@code null} to create a new frame
+	 * @param timeout max time (in ms) to wait for the frame
+	 * @return A {@link Frame} holding the next frame
+	 * @throws CameraException if no frame is captured in time
+	 */
+	Frame getNextFrame(long sequence, Frame reuse, long timeout) throws CameraException;
+	
+	/**
+	 * Copies the first frame captured after given sequence into given frame, downscaled to given profile. 
+	 *  Downscaling is done while copying, so the full-size frame is never copied. 
+	 * Waits for the frame if it wasn't captured yet. If the frame is no longer buffered, 
+	 *  the oldest buffered frame is copied.
+	 * @param sequence sequence of the previously read frame, {@code -1} to read the latest frame
+	 * @param reuse frame to copy into, {@code null} to create a new frame (a new frame is also created
+	 *  if given frame isn't of the profile's size - given frame must then no longer be used once the new frame
+	 *  is returned; if no frame is returned, given frame is still the caller's)
+	 * @param timeout max time (in ms) to wait for the frame
+	 * @param profile profile of consumer
+	 * @return A {@link Frame} holding the next frame
+	 * @throws CameraException if no frame is captured in time
+	 */
+	Frame getNextFrame(long sequence, Frame reuse, long timeout, CaptureProfile profile) throws CameraException;
+	
+	/**
+	 * Returns copies of the buffered frames captured within given time range (oldest first).
+	 * @param fromTime start of range (in ms)
+	 * @param toTime end of range (in ms)
+	 * @return A List of {@link Frame}s
+	 */
+	List<Frame> getFrames(long fromTime, long toTime);
+	
+	/**
+	 * Returns number of frames currently buffered.
+	 * @return An int representing the number of buffered frames
+	 */
+	int getBufferedFrames();
+	
+}
@@ -0,0 +1,54 @@
+package org.miri.camcapture.api;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+
+import org.miri.camcapture.exceptions.CameraException;
+
+/**
+ * Defines a source of frames, such as a camera device or a replayed recording. <br>
+ * Frames are read by a single capture thread, which paces the reads.
+ * @author Miri Yehezkel
+ * @see IFrameBuffer
+ */
+public interface IFrameSource extends Closeable {
+	
+	/**
+	 * Returns the source's name.
+	 * @return A String representing the source's name
+	 */
+	String getName();
+	
+	/**
+	 * Returns the size of frames read from source.
+	 * @return A {@link Dimension} object
+	 */
+	Dimension getSize();
+	
+	/**
+	 * Opens source for reading.
+	 * @throws CameraException if unable to open source
+	 */
+	void open() throws CameraException;
+	
+	/**
+	 * Returns whether source is open.
+	 * @return {@code true} if source is open, {@code false} otherwise
+	 */
+	boolean isOpen();
+	
+	/**
+	 * Reads the next frame. The returned image may be reused by the source on the next read.
+	 * @return A {@link BufferedImage} holding the frame, {@code null} if no frame is available
+	 * @throws CameraException if unable to read from source
+	 */
+	BufferedImage read() throws CameraException;
+	
+	/**
+	 * Closes source.
+	 */
+	@Override
+	void close();
+	
+}
@@ -2,6 +2,7 @@ package org.miri.camcapture.api;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 import org.miri.camcapture.exceptions.BotTokenAccessException;
 import org.miri.camcapture.exceptions.CameraException;
@@ -26,6 +27,24 @@ public interface ITelegram {
 	 */
 	void getUpdates() throws TelegramException, BotTokenAccessException, IOException;
 	
+	/**
+	 * Registers a webhook, so Telegram posts incoming updates to it instead of holding them for {@link #getUpdates()}.
+	 * @param url HTTPS URL to post updates to
+	 * @param secretToken token sent with every posted update, to tell Telegram's requests apart
+	 * @throws IOException if unable to connect to telegram
+	 * @throws TelegramException if telegram refused the webhook
+	 * @throws BotTokenAccessException if unable to access bot token
+	 */
+	void setWebhook(String url, String secretToken) throws TelegramException, BotTokenAccessException, IOException;
+	
+	/**
+	 * Removes the webhook, if any, so updates can be retrieved with {@link #getUpdates()}.
+	 * @throws IOException if unable to connect to telegram
+	 * @throws TelegramException if telegram refused to remove the webhook
+	 * @throws BotTokenAccessException if unable to access bot token
+	 */
+	void deleteWebhook() throws TelegramException, BotTokenAccessException, IOException;
+	
 	/**
 	 * Executes retrieved command.
 	 * @param chatId Id of telegram chat
@@ -46,13 +65,37 @@ public interface ITelegram {
 	void sendMessage(String chatId, String msg) throws IOException, BotTokenAccessException;
 	
 	/**
-	 * Sends a captured image to given chatId.
+	 * Sends an image captured by the default camera to given chatId.
 	 * @param chatId chat to send image to
 	 * @throws IOException if unable to connect to telegram
 	 * @throws BotTokenAccessException
 	 */
 	void sendImage(String chatId) throws CameraException, BotTokenAccessException, IOException, FileAccessException;
 	
+	/**
+	 * Sends an image captured by given camera to given chatId.
+	 * @param chatId chat to send image to
+	 * @param camera camera to capture from
+	 * @throws CameraException if unable to complete capture
+	 * @throws IOException if unable to connect to telegram
+	 * @throws BotTokenAccessException if unable to access bot token
+	 * @throws FileAccessException if unable to encode image
+	 */
+	void sendImage(String chatId, ICamera camera) throws CameraException, BotTokenAccessException, IOException, FileAccessException;
+	
+	/**
+	 * Sends an image captured by each of given cameras to given chatId, as an album. 
+	 * Cameras capture in parallel.
+	 * @param chatId chat to send images to
+	 * @param cameras cameras to capture from
+	 * @throws CameraException if unable to complete capture
+	 * @throws IOException if unable to connect to telegram
+	 * @throws BotTokenAccessException if unable to access bot token
+	 * @throws FileAccessException if unable to encode images
+	 */
+	void sendCameraImages(String chatId, List<ICamera> cameras) 
+			throws CameraException, BotTokenAccessException, IOException, FileAccessException;
+	
 	/**
 	 * Sends a given image to chatId.
 	 * @param chatId chat to send image to
@@ -63,6 +106,36 @@ public interface ITelegram {
 	 */
 	void sendImage(String chatId, File image) throws IOException, CameraException, BotTokenAccessException;
 	
+	/**
+	 * Sends a given in-memory image to chatId.
+	 * @param chatId chat to send image to
+	 * @param image image to send
+	 * @throws IOException if unable to connect to telegram
+	 * @throws BotTokenAccessException if unable to access bot token
+	 */
+	void sendImage(String chatId, Capture image) throws IOException, BotTokenAccessException;
+	
+	/**
+	 * Sends a given in-memory image to chatId with a caption, in a single request. 
+	 * Images already uploaded to another chat are sent by their file id.
+	 * @param chatId chat to send image to
+	 * @param image image to send
+	 * @param caption caption of image, {@code null} for none
+	 * @throws IOException if unable to connect to telegram
+	 * @throws BotTokenAccessException if unable to access bot token
+	 */
+	void sendImage(String chatId, Capture image, String caption) throws IOException, BotTokenAccessException;
+	
+	/**
+	 * Sends given in-memory images to chatId as a single album (up to 10 images).
+	 * Images already uploaded to another chat are sent by their file id.
+	 * @param chatId chat to send images to
+	 * @param images images to send
+	 * @throws IOException if unable to connect to telegram
+	 * @throws BotTokenAccessException if unable to access bot token
+	 */
+	void sendImages(String chatId, List<Capture> images) throws IOException, BotTokenAccessException;
+	
 	/**
 	 * Sends a captured video to given chatId.
 	 * @param chatId chat to send video to
@@ -70,9 +143,29 @@ public interface ITelegram {
 	 */
 	void sendVideo(String chatId) throws IOException, CameraException, BotTokenAccessException, TelegramException, FileAccessException;
 	
+	/**
+	 * Sends a video captured with given options to chatId.
+	 * @param chatId chat to send video to
+	 * @param options requested video length, frame rate and bit rate
+	 * @throws IOException if unable to connect to telegram
+	 */
+	void sendVideo(String chatId, VideoOptions options) 
+			throws IOException, CameraException, BotTokenAccessException, TelegramException, FileAccessException;
+	
+	/**
+	 * Sends a given in-memory video to chatId with a caption. 
+	 * Videos already uploaded to another chat are sent by their file id.
+	 * @param chatId chat to send video to
+	 * @param video video to send
+	 * @param caption caption of video, {@code null} for none
+	 * @throws IOException if unable to connect to telegram
+	 * @throws BotTokenAccessException if unable to access bot token
+	 */
+	void sendVideo(String chatId, Capture video, String caption) throws IOException, BotTokenAccessException;
+	
 	
 	/**
-	 * Sets motion detection state.
+	 * Sets motion detection state on all cameras.
 	 * @param value Boolean value of state; {@code true} to start motion detection, {@code false} otherwise
 	 * @param chatId Id of telegram chat
 	 * @throws IOException if unable to connect to telegram
@@ -80,5 +173,15 @@ public interface ITelegram {
 	 */
 	void setMotionDetection(boolean value, String chatId) throws IOException, BotTokenAccessException;
 	
+	/**
+	 * Sets motion detection state on given cameras.
+	 * @param value Boolean value of state; {@code true} to start motion detection, {@code false} otherwise
+	 * @param chatId Id of telegram chat
+	 * @param cameras cameras to start or stop motion detection on
+	 * @throws IOException if unable to connect to telegram
+	 * @throws BotTokenAccessException if unable to access bot token
+	 */
+	void setMotionDetection(boolean value, String chatId, List<ICamera> cameras) throws IOException, BotTokenAccessException;
+	
 	
 }
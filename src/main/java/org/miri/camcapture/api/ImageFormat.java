@@ -0,0 +1,36 @@
+package org.miri.camcapture.api;
+
+/**
+ * Defines the formats captured images can be saved in.
+ * @author Miri Yehezkel
+ *
+ */
+public enum ImageFormat {
+	JPEG(".jpg", "image/jpeg"),
+	PNG(".png", "image/png");
+	
+	private final String fileType;
+	private final String mimeType;
+	
+	private ImageFormat(String fileType, String mimeType) {
+		this.fileType = fileType;
+		this.mimeType = mimeType;
+	}
+	
+	/**
+	 * Returns file type of format.
+	 * @return A String representing the file extension (e.g. ".jpg")
+	 */
+	public String getFileType() {
+		return fileType;
+	}
+	
+	/**
+	 * Returns MIME type of format.
+	 * @return A String representing the MIME type (e.g. "image/jpeg")
+	 */
+	public String getMimeType() {
+		return mimeType;
+	}
+	
+}
@@ -0,0 +1,101 @@
+package org.miri.camcapture.api;
+
+/**
+ * Defines the keys of user settings.
+ * @author Miri Yehezkel
+ * @see org.miri.camcapture.util.Settings
+ */
+public class SettingKeys {
+	
+	//Telegram connection
+	public static final String BASE_URL 			= "telegram.base.url";
+	public static final String POLL_TIMEOUT 		= "telegram.poll.timeout";
+	public static final String POLL_INTERVAL 		= "telegram.poll.interval";
+	public static final String MAX_CONNECTIONS 		= "telegram.max.connections";
+	public static final String CONNECT_TIMEOUT 		= "telegram.connect.timeout";
+	public static final String UPDATE_CHECKPOINT_FILE 	= "telegram.checkpoint.file";
+	public static final String UPDATE_DEDUPE_WINDOW 	= "telegram.dedupe.window";
+	public static final String WEBHOOK_URL 			= "webhook.url";
+	public static final String WEBHOOK_HOST 		= "webhook.host";
+	public static final String WEBHOOK_PORT 		= "webhook.port";
+	public static final String WEBHOOK_SECRET 		= "webhook.secret";
+	
+	//Sending to Telegram
+	public static final String SEND_GLOBAL_RATE 	= "send.global.rate";
+	public static final String SEND_CHAT_RATE 		= "send.chat.rate";
+	public static final String SEND_CHAT_BURST 		= "send.chat.burst";
+	public static final String SEND_RETRIES 		= "send.retries";
+	public static final String SEND_RETRY_BACKOFF 	= "send.retry.backoff";
+	public static final String SEND_STATUS_DELAY 	= "send.status.delay";
+	
+	//Command execution
+	public static final String DISPATCHER_WORKERS 			= "dispatcher.workers";
+	public static final String DISPATCHER_QUEUE_CAPACITY 	= "dispatcher.queue.capacity";
+	
+	//Camera
+	public static final String CAMERA_SOURCE 				= "camera.source";
+	//resolution of a camera, by camera number (e.g. camera.2.resolution)
+	public static final String CAMERA_RESOLUTION 			= "camera.%d.resolution";
+	public static final String REPLAY_CAMERAS 				= "replay.cameras";
+	public static final String REPLAY_PATH 					= "replay.path";
+	public static final String REPLAY_WIDTH 				= "replay.width";
+	public static final String REPLAY_HEIGHT 				= "replay.height";
+	public static final String REPLAY_LOOP 					= "replay.loop";
+	public static final String REPLAY_MOTION 				= "replay.motion";
+	public static final String GRABBER_BUFFER_FRAMES 		= "grabber.buffer.frames";
+	public static final String GRABBER_FPS 					= "grabber.fps";
+	public static final String FRAME_POOL_SIZE 				= "frame.pool.size";
+	public static final String PROFILE_SNAPSHOT_WIDTH 		= "profile.snapshot.width";
+	public static final String PROFILE_VIDEO_WIDTH 			= "profile.video.width";
+	public static final String PROFILE_DETECTION_WIDTH 		= "profile.detection.width";
+	public static final String PROFILE_LIVE_WIDTH 			= "profile.live.width";
+	public static final String SNAPSHOT_COALESCE_WINDOW 	= "snapshot.coalesce.window";
+	public static final String SNAPSHOT_UPLOAD_WAIT 		= "snapshot.upload.wait";
+	public static final String SNAPSHOT_FORMAT 				= "snapshot.format";
+	public static final String SNAPSHOT_JPEG_QUALITY 		= "snapshot.jpeg.quality";
+	public static final String VIDEO_DURATION 				= "video.duration";
+	public static final String VIDEO_FPS 					= "video.fps";
+	public static final String VIDEO_BIT_RATE 				= "video.bitrate";
+	public static final String VIDEO_MAX_DURATION 			= "video.max.duration";
+	public static final String VIDEO_MAX_FPS 				= "video.max.fps";
+	public static final String VIDEO_ENCODE_WORKERS 		= "video.encode.workers";
+	public static final String VIDEO_ENCODE_BUFFER 			= "video.encode.buffer";
+	public static final String VIDEO_SEGMENT_DURATION 		= "video.segment.duration";
+	public static final String TIMELAPSE_FPS 				= "timelapse.fps";
+	public static final String TIMELAPSE_SEGMENT_FRAMES 	= "timelapse.segment.frames";
+	public static final String TIMELAPSE_MAX_DURATION 		= "timelapse.max.duration";
+	
+	//Archive
+	public static final String ARCHIVE_ENABLED 				= "archive.enabled";
+	public static final String ARCHIVE_QUEUE_CAPACITY 		= "archive.queue.capacity";
+	public static final String ARCHIVE_MAX_SIZE 			= "archive.max.size";
+	public static final String ARCHIVE_CHAT_MAX_SIZE 		= "archive.chat.max.size";
+	
+	//Motion detection
+	public static final String MOTION_INTERVAL 				= "motion.interval";
+	public static final String MOTION_ANALYSIS_WIDTH 		= "motion.analysis.width";
+	public static final String MOTION_ANALYSIS_HEIGHT 		= "motion.analysis.height";
+	public static final String MOTION_BLOCK_SIZE 			= "motion.block.size";
+	public static final String MOTION_PIXEL_THRESHOLD 		= "motion.pixel.threshold";
+	public static final String MOTION_AREA_THRESHOLD 		= "motion.area.threshold";
+	public static final String MOTION_LEARNING_SHIFT 		= "motion.learning.shift";
+	public static final String MOTION_EXCLUDE 				= "motion.exclude";
+	public static final String MOTION_BURST_QUIET 			= "motion.burst.quiet";
+	public static final String MOTION_BURST_MAX 			= "motion.burst.max";
+	public static final String MOTION_ALBUM_SIZE 			= "motion.album.size";
+	public static final String MOTION_ALERTS_PER_MINUTE 	= "motion.alerts.per.minute";
+	public static final String MOTION_CLIP_ENABLED 			= "motion.clip.enabled";
+	public static final String MOTION_CLIP_PREROLL 			= "motion.clip.preroll";
+	
+	//Live view
+	public static final String LIVE_VIEW_PORT 				= "liveview.port";
+	public static final String LIVE_VIEW_HOST 				= "liveview.host";
+	public static final String LIVE_VIEW_FPS 				= "liveview.fps";
+	public static final String LIVE_VIEW_MAX_VIEWERS 		= "liveview.max.viewers";
+	
+	//Metrics
+	public static final String METRICS_PORT 				= "metrics.port";
+	public static final String METRICS_HOST 				= "metrics.host";
+	public static final String METRICS_JMX 					= "metrics.jmx";
+	
+}
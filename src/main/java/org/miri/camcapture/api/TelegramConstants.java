@@ -13,6 +13,9 @@ public class TelegramConstants {
 	public static final String SEND_PHOTO_URL 	= "/sendPhoto";
 	public static final String SEND_VIDEO_URL 	= "/sendVideo";
 	public static final String GET_UPDATES_URL 	= "/getUpdates";
+	public static final String SEND_MEDIA_GROUP_URL = "/sendMediaGroup";
+	public static final String SET_WEBHOOK_URL 	= "/setWebhook";
+	public static final String DELETE_WEBHOOK_URL = "/deleteWebhook";
 	
 	//Fields in Telegram JSON objects
 	public static final String CHAT_ID_FIELD 	= "chat_id";
@@ -24,5 +27,19 @@ public class TelegramConstants {
 	public static final String ID_FIELD 		= "id";
 	public static final String RESULT_FIELD 	= "result";
 	public static final String UPDATE_ID_FIELD 	= "update_id";
+	public static final String OK_FIELD 		= "ok";
+	public static final String DESCRIPTION_FIELD = "description";
+	public static final String FILE_ID_FIELD 	= "file_id";
+	public static final String CAPTION_FIELD 	= "caption";
+	public static final String MEDIA_FIELD 		= "media";
+	public static final String TYPE_FIELD 		= "type";
+	public static final String ATTACH_PREFIX 	= "attach://";
+	public static final String PARAMETERS_FIELD = "parameters";
+	public static final String RETRY_AFTER_FIELD = "retry_after";
+	public static final String URL_FIELD 		= "url";
+	public static final String SECRET_TOKEN_FIELD = "secret_token";
+	public static final String ALLOWED_UPDATES_FIELD = "allowed_updates";
+	//header carrying the secret token in requests Telegram sends to a webhook
+	public static final String SECRET_TOKEN_HEADER = "X-Telegram-Bot-Api-Secret-Token";
 	
 }
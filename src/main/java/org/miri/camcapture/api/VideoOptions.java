@@ -0,0 +1,61 @@
+package org.miri.camcapture.api;
+
+import org.miri.camcapture.util.Settings;
+
+/**
+ * Defines the options of a requested video.
+ * @author Miri Yehezkel
+ *
+ */
+public class VideoOptions {
+	private final int duration;
+	private final int fps;
+	private final int bitRate;
+	
+	/**
+	 * @param duration video length (in seconds)
+	 * @param fps frames per second
+	 * @param bitRate target bit rate (in bits per second), {@code 0} for the encoder's default
+	 */
+	public VideoOptions(int duration, int fps, int bitRate) {
+		this.duration = duration;
+		this.fps = fps;
+		this.bitRate = bitRate;
+	}
+	
+	/**
+	 * Returns the default video options, as set in user settings.
+	 * @return A {@link VideoOptions} object
+	 */
+	public static VideoOptions getDefault() {
+		return new VideoOptions(Settings.getInt(SettingKeys.VIDEO_DURATION, 5), 
+				Settings.getInt(SettingKeys.VIDEO_FPS, 10), 
+				Settings.getInt(SettingKeys.VIDEO_BIT_RATE, 0));
+	}
+	
+	public int getDuration() {
+		return duration;
+	}
+	
+	public int getFps() {
+		return fps;
+	}
+	
+	public int getBitRate() {
+		return bitRate;
+	}
+	
+	/**
+	 * Returns number of frames in video.
+	 * @return An int representing number of frames
+	 */
+	public int getFrames() {
+		return duration * fps;
+	}
+	
+	@Override
+	public String toString() {
+		return duration + "s, " + fps + "fps" + (bitRate > 0 ? ", " + bitRate / 1000 + "kbps" : "");
+	}
+	
+}
@@ -0,0 +1,204 @@
+package org.miri.camcapture.impl;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.miri.camcapture.api.ICamera;
+import org.miri.camcapture.api.IFrameSource;
+import org.miri.camcapture.api.SettingKeys;
+import org.miri.camcapture.exceptions.CameraException;
+import org.miri.camcapture.exceptions.FileAccessException;
+import org.miri.camcapture.util.DaemonThreadFactory;
+import org.miri.camcapture.util.Metrics;
+import org.miri.camcapture.util.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sarxos.webcam.Webcam;
+
+/**
+ * Discovers all cameras on startup and numbers them (starting at 1, the default camera). <br>
+ * Each camera captures on its own thread at its own resolution, and work across cameras
+ *  (e.g. an image from every camera) runs in parallel, so it takes about as long as on a single camera.
+ * @author Miri Yehezkel
+ * @see DeviceCamera
+ */
+public enum CameraRegistry {
+	INSTANCE;
+	private final Logger logger = LoggerFactory.getLogger(CameraRegistry.class);
+	private final List<ICamera> cameras;
+	private final ExecutorService workers;
+	
+	
+	private CameraRegistry() {
+		cameras = Collections.unmodifiableList(discover());
+		workers = Executors.newFixedThreadPool(Math.max(1, cameras.size()), new DaemonThreadFactory("camera-worker"));
+		Metrics.INSTANCE.gauge("camcapture_frames_buffered", "Frames in the frame buffers of all cameras",
+				this::getBufferedFrames);
+		if (cameras.isEmpty())
+			logger.error("Unable to find camera");
+		else
+			logger.info("Found {} camera(s)", cameras.size());
+	}
+	
+	/**
+	 * Returns all cameras, in camera number order.
+	 * @return An unmodifiable List of {@link ICamera} objects
+	 */
+	public List<ICamera> getCameras() {
+		return cameras;
+	}
+	
+	/**
+	 * Returns camera of given number.
+	 * @param id camera number (starting at 1)
+	 * @return An {@link ICamera} object
+	 * @throws CameraException if there's no such camera
+	 */
+	public ICamera getCamera(int id) throws CameraException {
+		if (cameras.isEmpty())
+			throw new CameraException("Unable to find camera");
+		if (id < 1 || id > cameras.size())
+			throw new CameraException("No camera " + id + " (cameras 1-" + cameras.size() + ")");
+		return cameras.get(id - 1);
+	}
+	
+	/**
+	 * Returns the default camera (camera 1).
+	 * @return An {@link ICamera} object
+	 * @throws CameraException if no camera was found
+	 */
+	public ICamera getDefault() throws CameraException {
+		return getCamera(1);
+	}
+	
+	/**
+	 * Runs a task on each of the given cameras in parallel, and waits for all of them.
+	 * @param targets cameras to run the task on
+	 * @param task task to run
+	 * @return A List of the task results, in the order of given cameras
+	 * @throws CameraException if task failed on any camera with a CameraException, or was interrupted
+	 * @throws FileAccessException if task failed on any camera with a FileAccessException
+	 */
+	public <T> List<T> forEach(List<ICamera> targets, CameraTask<T> task) throws CameraException, FileAccessException {
+		List<T> results = new ArrayList<>(targets.size());
+		if (targets.size() == 1) {
+			results.add(task.run(targets.get(0)));
+			return results;
+		}
+		List<Future<T>> futures = new ArrayList<>(targets.size());
+		for (ICamera camera : targets)
+			futures.add(workers.submit(() -> task.run(camera)));
+		for (Future<T> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (InterruptedException exc) {
+				Thread.currentThread().interrupt();
+				throw new CameraException("Interrupted while waiting for cameras", exc);
+			} catch (ExecutionException exc) {
+				Throwable cause = exc.getCause();
+				if (cause instanceof CameraException)
+					throw (CameraException) cause;
+				if (cause instanceof FileAccessException)
+					throw (FileAccessException) cause;
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				throw new CameraException(cause.getMessage(), cause);
+			}
+		}
+		return results;
+	}
+	
+	
+	/**
+	 * Creates a camera for each device found - every connected webcam, or the configured number of replay sources.
+	 * @return A List of {@link ICamera} objects
+	 */
+	private List<ICamera> discover() {
+		List<ICamera> found = new ArrayList<>();
+		if ("replay".equalsIgnoreCase(Settings.getString(SettingKeys.CAMERA_SOURCE, "webcam"))) {
+			int count = Math.max(1, Settings.getInt(SettingKeys.REPLAY_CAMERAS, 1));
+			String path = Settings.getString(SettingKeys.REPLAY_PATH, "");
+			for (int id = 1; id <= count; id++) {
+				Dimension size = getResolution(id, new Dimension(Settings.getInt(SettingKeys.REPLAY_WIDTH, 1280),
+						Settings.getInt(SettingKeys.REPLAY_HEIGHT, 720)));
+				IFrameSource source = new ReplayFrameSource(path.isEmpty() ? null : new File(path), size.width, size.height,
+						Settings.getBoolean(SettingKeys.REPLAY_LOOP, true), Settings.getString(SettingKeys.REPLAY_MOTION, ""));
+				found.add(new DeviceCamera(id, source));
+			}
+			return found;
+		}
+		List<Webcam> webcams;
+		try {
+			webcams = Webcam.getWebcams();
+		} catch (RuntimeException exc) {
+			logger.error("Unable to discover cameras: " + exc.getMessage(), exc);
+			return found;
+		}
+		for (Webcam webcam : webcams) {
+			int id = found.size() + 1;
+			found.add(new DeviceCamera(id, new WebcamFrameSource(webcam, getResolution(id, null))));
+		}
+		return found;
+	}
+	
+	/**
+	 * Returns configured resolution of a camera.
+	 * @param id camera number
+	 * @param defaultValue resolution to return if none is configured or it's invalid
+	 * @return A {@link Dimension} representing the resolution
+	 */
+	private Dimension getResolution(int id, Dimension defaultValue) {
+		String key = String.format(SettingKeys.CAMERA_RESOLUTION, id);
+		String value = Settings.getString(key, null);
+		if (value == null)
+			return defaultValue;
+		String[] parts = value.toLowerCase().split("x");
+		try {
+			if (parts.length == 2)
+				return new Dimension(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+		} catch (NumberFormatException exc) {
+			//logged below
+		}
+		logger.warn("Setting '{}' is not a resolution ({}), expected e.g. 1280x720", key, value);
+		return defaultValue;
+	}
+	
+	private long getBufferedFrames() {
+		long frames = 0;
+		for (ICamera camera : cameras) {
+			try {
+				frames += camera.getFrameBuffer().getBufferedFrames();
+			} catch (CameraException exc) {
+				//camera not available
+			}
+		}
+		return frames;
+	}
+	
+	
+	/**
+	 * A task run on a camera.
+	 * @param <T> task result type
+	 */
+	@FunctionalInterface
+	public interface CameraTask<T> {
+	
+		/**
+		 * @param camera camera to run on
+		 * @return Task result
+		 * @throws CameraException if unable to use camera
+		 * @throws FileAccessException if unable to encode or save
+		 */
+		T run(ICamera camera) throws CameraException, FileAccessException;
+	
+	}
+	
+}
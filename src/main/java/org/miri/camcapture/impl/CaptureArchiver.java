@@ -0,0 +1,116 @@
+package org.miri.camcapture.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.miri.camcapture.api.Capture;
+import org.miri.camcapture.api.SettingKeys;
+import org.miri.camcapture.exceptions.FileAccessException;
+import org.miri.camcapture.util.Counter;
+import org.miri.camcapture.util.DaemonThreadFactory;
+import org.miri.camcapture.util.Histogram;
+import org.miri.camcapture.util.Metrics;
+import org.miri.camcapture.util.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Saves captured media to the local machine, under a directory per chat (see {@link CaptureStorage}). <br>
+ * Captures sent from memory are archived on a background thread (write-behind), 
+ *  so sending them never waits for the disk. Archiving can be turned off in user settings.
+ * @author Miri Yehezkel
+ *
+ */
+public enum CaptureArchiver {
+	INSTANCE;
+	private final Logger logger = LoggerFactory.getLogger(CaptureArchiver.class);
+	private final boolean enabled = Settings.getBoolean(SettingKeys.ARCHIVE_ENABLED, true);
+	private final Histogram writeTime = Metrics.INSTANCE.histogram("camcapture_disk_write_seconds", 
+			"Time captures take to save to disk");
+	private final Counter droppedCaptures = Metrics.INSTANCE.counter("camcapture_archive_dropped_total", 
+			"Captures not saved since the archive queue was full");
+	private final ThreadPoolExecutor writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, 
+			new LinkedBlockingQueue<>(Settings.getInt(SettingKeys.ARCHIVE_QUEUE_CAPACITY, 20)), 
+			new DaemonThreadFactory("capture-archiver"), 
+			(task, executor) -> {
+				droppedCaptures.increment();
+				logger.warn("Archive queue is full, capture not saved");
+			});
+	
+	
+	private CaptureArchiver() {
+		Metrics.INSTANCE.gauge("camcapture_archive_queue_depth", "Captures waiting to be saved", 
+				() -> writer.getQueue().size());
+	}
+	
+	
+	/**
+	 * @return {@code true} if captures are saved to the local machine, {@code false} otherwise
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * Queues capture to be saved to the local machine (if archiving is enabled).
+	 * @param capture captured media
+	 */
+	public void archive(Capture capture) {
+		if (! enabled)
+			return;
+		writer.execute(() -> {
+			try {
+				save(capture);
+			} catch (FileAccessException exc) {
+				logger.error(exc.getMessage(), exc.getCause());
+			}
+		});
+	}
+	
+	/**
+	 * Saves capture to the local machine.
+	 * @param capture captured media
+	 * @return A {@link File} representing the location of the saved capture
+	 * @throws FileAccessException if unable to save file
+	 */
+	public File save(Capture capture) throws FileAccessException {
+		long start = System.nanoTime();
+		File file = CaptureStorage.INSTANCE.createFile(capture.getChatId(), capture.getFileType(), capture.getTime());
+		try {
+			Files.write(file.toPath(), capture.getData());
+		} catch (IOException e) {
+			CaptureStorage.INSTANCE.invalidateDirectory(capture.getChatId());
+			throw new FileAccessException("Unable to save capture", e);
+		} finally {
+			writeTime.recordSince(start);
+		}
+		CaptureStorage.INSTANCE.onSaved(capture.getChatId(), file, capture.getData().length);
+		return file;
+	}
+	
+	/**
+	 * Returns a new file for media captured now.
+	 * @param chatId Id of the chat requesting file
+	 * @param fileType Type of file (.png, .jpg, .mp4 etc.)
+	 * @return A {@link File} in the chat's directory
+	 * @throws FileAccessException if unable to make directory
+	 */
+	public File createFile(String chatId, String fileType) throws FileAccessException {
+		return CaptureStorage.INSTANCE.createFile(chatId, fileType, System.currentTimeMillis());
+	}
+	
+	/**
+	 * Counts a file written directly to the chat's directory (see {@link #createFile(String, String)})
+	 *  towards storage quotas.
+	 * @param chatId Id of the chat the file was saved for
+	 * @param file saved file
+	 */
+	public void onSaved(String chatId, File file) {
+		CaptureStorage.INSTANCE.onSaved(chatId, file, file.length());
+	}
+	
+}
@@ -0,0 +1,273 @@
+package org.miri.camcapture.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.miri.camcapture.api.SettingKeys;
+import org.miri.camcapture.exceptions.FileAccessException;
+import org.miri.camcapture.util.Counter;
+import org.miri.camcapture.util.DaemonThreadFactory;
+import org.miri.camcapture.util.Metrics;
+import org.miri.camcapture.util.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Manages the local capture storage - a directory per chat under <i>captures</i>, bounded by a total
+ *  and a per-chat quota. <br>
+ * Chat directories are created once and cached, so naming a file costs no filesystem calls. Saved files
+ *  are kept in an in-memory size index (built by scanning the storage once, on startup); when a quota is exceeded
+ *  the oldest files are deleted on a background thread, without rescanning directories.
+ * @author Miri Yehezkel
+ *
+ */
+public enum CaptureStorage {
+	INSTANCE;
+	private final Logger logger = LoggerFactory.getLogger(CaptureStorage.class);
+	private static final long MB = 1024 * 1024;
+	private static final Path rootDir = Paths.get("captures");
+	private static final DateTimeFormatter fileNameFormatter = DateTimeFormatter.ofPattern("yyyyMMdd-HH-mm-ss.SSS")
+			.withZone(ZoneId.systemDefault());
+	private final long maxBytes = Settings.getLong(SettingKeys.ARCHIVE_MAX_SIZE, 1024) * MB;
+	private final long maxChatBytes = Settings.getLong(SettingKeys.ARCHIVE_CHAT_MAX_SIZE, 256) * MB;
+	private final Map<String, Path> directories = new ConcurrentHashMap<>();
+	private final Counter evictedFiles = Metrics.INSTANCE.counter("camcapture_storage_evicted_total",
+			"Captures deleted to stay within storage quotas");
+	private final ExecutorService evictor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("capture-storage"));
+	private final AtomicBoolean evictionPending = new AtomicBoolean();
+	//size index, guarded by itself
+	private final Map<Path, StoredFile> files = new HashMap<>();
+	private final TreeSet<StoredFile> oldestFirst = new TreeSet<>();
+	private final Map<String, ChatFiles> chats = new HashMap<>();
+	private volatile long totalBytes;
+	
+	
+	private CaptureStorage() {
+		Metrics.INSTANCE.gauge("camcapture_storage_bytes", "Bytes of captures stored", () -> totalBytes);
+		evictor.execute(this::scan);
+	}
+	
+	
+	/**
+	 * Returns a new file for media captured at the given time, in the chat's directory.
+	 * @param chatId Id of the chat requesting file
+	 * @param fileType Type of file (.png, .jpg, .mp4 etc.)
+	 * @param time capture time
+	 * @return A {@link File} in the chat's directory
+	 * @throws FileAccessException if unable to make directory
+	 */
+	public File createFile(String chatId, String fileType, long time) throws FileAccessException {
+		Path directory = directories.get(chatId);
+		if (directory == null)
+			directory = createDirectory(chatId);
+		return directory.resolve(fileNameFormatter.format(Instant.ofEpochMilli(time)) + fileType).toFile();
+	}
+	
+	/**
+	 * Adds a saved file to the size index, and evicts old files in the background if a quota is exceeded.
+	 * @param chatId Id of the chat the file was saved for
+	 * @param file saved file
+	 * @param size file size (in bytes)
+	 */
+	public void onSaved(String chatId, File file, long size) {
+		boolean exceeded;
+		synchronized (files) {
+			add(new StoredFile(chatId, file.toPath(), size, System.currentTimeMillis()));
+			exceeded = isOverQuota();
+		}
+		if (exceeded && evictionPending.compareAndSet(false, true))
+			evictor.execute(this::evict);
+	}
+	
+	/**
+	 * Forgets the cached directory of a chat, so it is created again for the next file
+	 *  (e.g. after writing to it failed because it was removed).
+	 * @param chatId Id of the chat
+	 */
+	public void invalidateDirectory(String chatId) {
+		directories.remove(chatId);
+	}
+	
+	
+	/**
+	 * Makes chat directory (and the storage directory) and caches it.
+	 * @param chatId Id of the chat
+	 * @return A {@link Path} of the chat's directory
+	 * @throws FileAccessException if unable to make directory
+	 */
+	private Path createDirectory(String chatId) throws FileAccessException {
+		Path directory = rootDir.resolve(chatId);
+		try {
+			Files.createDirectories(directory);
+		} catch (IOException e) {
+			throw new FileAccessException("Unable to make directory '" + directory + "'", e);
+		}
+		directories.put(chatId, directory);
+		return directory;
+	}
+	
+	/**
+	 * Deletes oldest files until both quotas are met. Files are removed from the index before they are deleted,
+	 *  so the index never waits for the disk.
+	 */
+	private void evict() {
+		evictionPending.set(false);
+		List<StoredFile> victims = new ArrayList<>();
+		synchronized (files) {
+			//copied, since chats left with no files are removed
+			for (ChatFiles chat : new ArrayList<>(chats.values()))
+				while (maxChatBytes > 0 && chat.bytes > maxChatBytes)
+					victims.add(remove(chat.files.first()));
+			while (maxBytes > 0 && totalBytes > maxBytes)
+				victims.add(remove(oldestFirst.first()));
+		}
+		for (StoredFile victim : victims) {
+			try {
+				Files.deleteIfExists(victim.path);
+				evictedFiles.increment();
+			} catch (IOException e) {
+				logger.warn("Unable to delete capture {}: {}", victim.path, e.getMessage());
+			}
+		}
+		if (! victims.isEmpty())
+			logger.info("Deleted {} old captures to stay within storage quota", victims.size());
+	}
+	
+	/**
+	 * Builds the size index from files already stored. Files saved meanwhile are already indexed and are skipped.
+	 */
+	private void scan() {
+		if (! Files.isDirectory(rootDir))
+			return;
+		int count = 0;
+		try (DirectoryStream<Path> chatDirs = Files.newDirectoryStream(rootDir, Files::isDirectory)) {
+			for (Path chatDir : chatDirs) {
+				String chatId = chatDir.getFileName().toString();
+				directories.putIfAbsent(chatId, chatDir);
+				try (DirectoryStream<Path> chatFiles = Files.newDirectoryStream(chatDir)) {
+					for (Path path : chatFiles) {
+						BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+						if (! attributes.isRegularFile())
+							continue;
+						synchronized (files) {
+							if (! files.containsKey(path)) {
+								add(new StoredFile(chatId, path, attributes.size(), attributes.lastModifiedTime().toMillis()));
+								count++;
+							}
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			logger.warn("Unable to scan capture storage: {}", e.getMessage());
+		}
+		logger.info("Indexed {} stored captures ({} MB)", count, totalBytes / MB);
+		boolean exceeded;
+		synchronized (files) {
+			exceeded = isOverQuota();
+		}
+		if (exceeded)
+			evict();
+	}
+	
+	/**
+	 * Adds file to the index, replacing an indexed file of the same path. Called while holding the index.
+	 * @param file file to add
+	 */
+	private void add(StoredFile file) {
+		StoredFile replaced = files.get(file.path);
+		if (replaced != null)
+			remove(replaced);
+		files.put(file.path, file);
+		oldestFirst.add(file);
+		ChatFiles chat = chats.computeIfAbsent(file.chatId, id -> new ChatFiles());
+		chat.files.add(file);
+		chat.bytes += file.size;
+		totalBytes += file.size;
+	}
+	
+	/**
+	 * Removes file from the index. Called while holding the index.
+	 * @param file file to remove
+	 * @return The removed file
+	 */
+	private StoredFile remove(StoredFile file) {
+		files.remove(file.path);
+		oldestFirst.remove(file);
+		ChatFiles chat = chats.get(file.chatId);
+		chat.files.remove(file);
+		chat.bytes -= file.size;
+		if (chat.files.isEmpty())
+			chats.remove(file.chatId);
+		totalBytes -= file.size;
+		return file;
+	}
+	
+	/**
+	 * Checks quotas. Called while holding the index.
+	 * @return {@code true} if total or any chat's size exceeds its quota
+	 */
+	private boolean isOverQuota() {
+		if (maxBytes > 0 && totalBytes > maxBytes)
+			return true;
+		if (maxChatBytes > 0)
+			for (ChatFiles chat : chats.values())
+				if (chat.bytes > maxChatBytes)
+					return true;
+		return false;
+	}
+	
+	
+	/**
+	 * A stored file, ordered by save time.
+	 */
+	private static class StoredFile implements Comparable<StoredFile> {
+		private static final AtomicLong sequence = new AtomicLong();
+		private final String chatId;
+		private final Path path;
+		private final long size;
+		private final long time;
+		private final long order = sequence.incrementAndGet();
+	
+		StoredFile(String chatId, Path path, long size, long time) {
+			this.chatId = chatId;
+			this.path = path;
+			this.size = size;
+			this.time = time;
+		}
+	
+		@Override
+		public int compareTo(StoredFile other) {
+			int compared = Long.compare(time, other.time);
+			return compared != 0 ? compared : Long.compare(order, other.order);
+		}
+	
+	}
+	
+	/**
+	 * Stored files of a chat and their total size.
+	 */
+	private static class ChatFiles {
+		private final TreeSet<StoredFile> files = new TreeSet<>();
+		private long bytes;
+	}
+	
+}
@@ -0,0 +1,125 @@
+package org.miri.camcapture.impl;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.miri.camcapture.api.SettingKeys;
+import org.miri.camcapture.util.DaemonThreadFactory;
+import org.miri.camcapture.util.Metrics;
+import org.miri.camcapture.util.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes commands on a bounded pool of worker threads. <br>
+ * Commands of the same chat are executed one at a time in the order they were received, 
+ *  while commands of different chats are executed in parallel.
+ * @author Miri Yehezkel
+ *
+ */
+public enum CommandDispatcher {
+	INSTANCE;
+	private final Logger logger = LoggerFactory.getLogger(CommandDispatcher.class);
+	private final int workers = Settings.getInt(SettingKeys.DISPATCHER_WORKERS, 4);
+	private final ExecutorService executor = Executors.newFixedThreadPool(workers, 
+			new DaemonThreadFactory("command-worker"));
+	//limits commands waiting for execution; dispatching blocks once limit is reached
+	private final Semaphore pending = new Semaphore(Settings.getInt(SettingKeys.DISPATCHER_QUEUE_CAPACITY, 100));
+	//pending commands per chat - a chat is listed while it has a command scheduled or running
+	private final ConcurrentHashMap<String, Queue<Runnable>> chats = new ConcurrentHashMap<>();
+	private final AtomicInteger queueDepth = new AtomicInteger();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	
+	
+	private CommandDispatcher() {
+		Metrics.INSTANCE.gauge("camcapture_command_queue_depth", "Commands waiting for a worker", queueDepth::get);
+		Metrics.INSTANCE.gauge("camcapture_commands_in_flight", "Commands being executed", inFlight::get);
+	}
+	
+	/**
+	 * Queues command for execution after the previous commands of the chat.
+	 * Blocks if too many commands are pending.
+	 * @param chatId Id of telegram chat
+	 * @param command command to execute
+	 */
+	public void dispatch(String chatId, Runnable command) {
+		pending.acquireUninterruptibly();
+		queueDepth.incrementAndGet();
+		boolean[] idle = new boolean[1];
+		chats.compute(chatId, (id, commands) -> {
+			if (commands == null) {
+				commands = new ArrayDeque<>();
+				idle[0] = true;
+			}
+			commands.add(command);
+			return commands;
+		});
+		//an idle chat is scheduled once its queue is visible to workers
+		if (idle[0])
+			executor.execute(() -> runNext(chatId));
+		logger.trace("Dispatched command of chat {} (queued: {}, in flight: {})", chatId, 
+				queueDepth.get(), inFlight.get());
+	}
+	
+	/**
+	 * Returns number of commands waiting for execution.
+	 * @return An int representing the queue depth
+	 */
+	public int getQueueDepth() {
+		return queueDepth.get();
+	}
+	
+	/**
+	 * Returns number of commands currently executing.
+	 * @return An int representing commands in flight
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+	
+	/**
+	 * Returns number of worker threads.
+	 * @return An int representing the pool size
+	 */
+	public int getWorkers() {
+		return workers;
+	}
+	
+	
+	/**
+	 * Runs the next command of chat, then reschedules chat if it has more pending commands.
+	 * Commands are rescheduled one at a time so busy chats don't starve others.
+	 * @param chatId Id of telegram chat
+	 */
+	private void runNext(String chatId) {
+		Runnable[] next = new Runnable[1];
+		chats.computeIfPresent(chatId, (id, commands) -> {
+			next[0] = commands.poll();
+			return commands;
+		});
+		Runnable command = next[0];
+		queueDepth.decrementAndGet();
+		inFlight.incrementAndGet();
+		try {
+			command.run();
+		} catch (RuntimeException exc) {
+			logger.error("Command of chat " + chatId + " failed: " + exc.getMessage(), exc);
+		} finally {
+			inFlight.decrementAndGet();
+			pending.release();
+			//rescheduled even if command threw an error, so chat's later commands still run
+			chats.compute(chatId, (id, commands) -> {
+				if (commands.isEmpty())
+					return null;
+				executor.execute(() -> runNext(id));
+				return commands;
+			});
+		}
+	}
+	
+}
@@ -0,0 +1,227 @@
+package org.miri.camcapture.impl;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.miri.camcapture.api.Capture;
+import org.miri.camcapture.api.CaptureProfile;
+import org.miri.camcapture.api.Frame;
+import org.miri.camcapture.api.ICamera;
+import org.miri.camcapture.api.IFrameBuffer;
+import org.miri.camcapture.api.IFrameSource;
+import org.miri.camcapture.api.ImageFormat;
+import org.miri.camcapture.api.SettingKeys;
+import org.miri.camcapture.api.VideoOptions;
+import org.miri.camcapture.exceptions.CameraException;
+import org.miri.camcapture.exceptions.FileAccessException;
+import org.miri.camcapture.exceptions.TelegramException;
+import org.miri.camcapture.util.Histogram;
+import org.miri.camcapture.util.Metrics;
+import org.miri.camcapture.util.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Allows to capture and save images and videos from a camera device (or a replay source) to the local machine. <br>
+ * Each device captures on its own thread, into its own frame buffer.
+ * @author Miri Yehezkel
+ * @see ICamera
+ * @see CameraRegistry
+ */
+public class DeviceCamera implements ICamera {
+	private final Logger logger = LoggerFactory.getLogger(DeviceCamera.class);
+	private static final String videoFileType = ".mp4";
+	private static final String videoMimeType = "video/mp4";
+	private final int id;
+	private final String name;
+	private final FrameGrabber grabber;
+	private final int grabberFps;
+	private final Histogram encodeTime = Metrics.INSTANCE.histogram("camcapture_snapshot_encode_seconds", 
+			"Time snapshots take to encode");
+	private final Histogram videoTime = Metrics.INSTANCE.histogram("camcapture_video_record_seconds", 
+			"Time videos take to record and encode");
+	
+	/**
+	 * @param id camera number (starting at 1)
+	 * @param source source to capture from
+	 */
+	public DeviceCamera(int id, IFrameSource source) {
+		this.id = id;
+		this.name = source.getName();
+		grabberFps = Settings.getInt(SettingKeys.GRABBER_FPS, 10);
+		grabber = new FrameGrabber(source, Settings.getInt(SettingKeys.GRABBER_BUFFER_FRAMES, 32), grabberFps);
+		logger.trace("Initialized camera {} ({})", id, name);
+	}
+	
+	@Override
+	public int getId() {
+		return id;
+	}
+	
+	@Override
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Captures image from camera and saves it to the local machine.
+	 */
+	@Override
+	public File saveImage(String chatId) throws CameraException, FileAccessException {
+		Frame frame = getFrameBuffer().getLatestFrame(CaptureProfile.SNAPSHOT);
+		try {
+			return saveImage(frame.getImage(), chatId);
+		} finally {
+			FramePool.INSTANCE.release(frame);
+		}
+	}
+	
+	/**
+	 * Saves a {@link BufferedImage} to the local machine.
+	 */
+	@Override
+	public File saveImage(BufferedImage img, String chatId) throws FileAccessException {
+		return CaptureArchiver.INSTANCE.save(encodeImage(img, chatId));
+	}
+	
+	/**
+	 * Captures image from camera into memory. The image is archived in the background.
+	 */
+	@Override
+	public Capture captureImage(String chatId) throws CameraException, FileAccessException {
+		Frame frame = getFrameBuffer().getLatestFrame(CaptureProfile.SNAPSHOT);
+		try {
+			return captureImage(frame.getImage(), chatId);
+		} finally {
+			FramePool.INSTANCE.release(frame);
+		}
+	}
+	
+	/**
+	 * Encodes a {@link BufferedImage} into memory. The image is archived in the background.
+	 */
+	@Override
+	public Capture captureImage(BufferedImage img, String chatId) throws FileAccessException {
+		Capture capture = encodeImage(img, chatId);
+		CaptureArchiver.INSTANCE.archive(capture);
+		return capture;
+	}
+	
+	/**
+	 * Captures a series of images from camera and saves it as a video to the local machine.
+	 */
+	@Override
+	public File saveVideo(String chatId) throws CameraException, TelegramException, FileAccessException {
+		return saveVideo(chatId, VideoOptions.getDefault());
+	}
+	
+	/**
+	 * Captures a series of images from camera at a fixed rate and saves it as a video to the local machine.
+	 * @see VideoRecorder
+	 */
+	@Override
+	public File saveVideo(String chatId, VideoOptions options) throws CameraException, TelegramException, FileAccessException {
+		File file = CaptureArchiver.INSTANCE.createFile(chatId, videoFileType);
+		recordVideo(file, options);
+		CaptureArchiver.INSTANCE.onSaved(chatId, file);
+		return file;
+	}
+	
+	/**
+	 * Captures a series of images from camera into an in-memory video. <br>
+	 * The MP4 container has to be finalized in a seekable file, so the video is encoded into a file and then read. 
+	 *  If archiving is enabled, the video is encoded straight into the archive, so it's written to disk once; 
+	 *  otherwise it's encoded into a temporary file that is deleted once read.
+	 */
+	@Override
+	public Capture captureVideo(String chatId, VideoOptions options) throws CameraException, TelegramException, FileAccessException {
+		long time = System.currentTimeMillis();
+		boolean archived = CaptureArchiver.INSTANCE.isEnabled();
+		File file = null;
+		boolean kept = false;
+		try {
+			file = archived ? CaptureArchiver.INSTANCE.createFile(chatId, videoFileType) 
+					: File.createTempFile("video", videoFileType);
+			recordVideo(file, options);
+			Capture capture = new Capture(chatId, time, Files.readAllBytes(file.toPath()), videoFileType, videoMimeType);
+			if (archived) {
+				CaptureArchiver.INSTANCE.onSaved(chatId, file);
+				kept = true;
+			}
+			return capture;
+		} catch (IOException e) {
+			throw new FileAccessException("Unable to capture video", e);
+		} finally {
+			//an archived video is kept only if fully recorded
+			if (file != null && ! kept && ! file.delete())
+				file.deleteOnExit();
+		}
+	}
+	
+	/**
+	 * Returns the buffer of frames continuously captured from camera.
+	 */
+	@Override
+	public IFrameBuffer getFrameBuffer() {
+		return grabber;
+	}
+	
+	
+	/**
+	 * Encodes image in the configured snapshot format.
+	 * @param img image to encode
+	 * @param chatId Id of telegram chat
+	 * @return A {@link Capture} holding the encoded image
+	 * @throws FileAccessException if unable to encode image
+	 */
+	private Capture encodeImage(BufferedImage img, String chatId) throws FileAccessException {
+		SnapshotEncoder encoder = SnapshotEncoder.INSTANCE;
+		long start = System.nanoTime();
+		try {
+			ImageFormat format = encoder.getFormat();
+			return new Capture(chatId, System.currentTimeMillis(), encoder.encode(img), 
+					format.getFileType(), format.getMimeType());
+		} catch (IOException e) {
+			throw new FileAccessException("Unable to capture image", e);
+		} finally {
+			encodeTime.recordSince(start);
+		}
+	}
+	
+	/**
+	 * Records video from frame buffer into given file - in segments encoded in parallel if the video is long 
+	 *  and several encoding workers are set. <br>
+	 * The video's frame rate is capped at the grabber's rate, since a higher rate would repeat frames: 
+	 *  the video keeps its duration, with fewer (all distinct) frames.
+	 * @param file video file
+	 * @param requested requested video options
+	 * @throws CameraException if unable to capture frames
+	 * @throws TelegramException if unable to encode video
+	 */
+	private void recordVideo(File file, VideoOptions requested) throws CameraException, TelegramException {
+		VideoOptions options = grabberFps > 0 && requested.getFps() > grabberFps 
+				? new VideoOptions(requested.getDuration(), grabberFps, requested.getBitRate()) : requested;
+		IFrameBuffer frameBuffer = getFrameBuffer();
+		Frame latest = frameBuffer.getLatestFrame(CaptureProfile.VIDEO);
+		int width = latest.getImage().getWidth();
+		int height = latest.getImage().getHeight();
+		FramePool.INSTANCE.release(latest);
+		long start = System.nanoTime();
+		try {
+			if (SegmentedVideoRecorder.INSTANCE.isSegmented(options)) {
+				SegmentedVideoRecorder.INSTANCE.record(frameBuffer, file, width, height, options);
+			} else {
+				try (VideoEncoder encoder = new VideoEncoder(file, width, height, options)) {
+					VideoRecorder.INSTANCE.record(frameBuffer, encoder, options);
+				}
+			}
+		} catch (IllegalArgumentException | UnsupportedOperationException exc) {
+			throw new TelegramException(exc.getMessage(), exc);
+		} finally {
+			videoTime.recordSince(start);
+		}
+	}
+	
+}
@@ -0,0 +1,278 @@
+package org.miri.camcapture.impl;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+import org.miri.camcapture.api.CaptureProfile;
+import org.miri.camcapture.api.Frame;
+import org.miri.camcapture.api.IFrameBuffer;
+import org.miri.camcapture.api.IFrameSource;
+import org.miri.camcapture.exceptions.CameraException;
+import org.miri.camcapture.util.Counter;
+import org.miri.camcapture.util.DaemonThreadFactory;
+import org.miri.camcapture.util.Histogram;
+import org.miri.camcapture.util.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Continuously captures frames from a frame source into a fixed-size ring buffer of reusable frames. <br>
+ * A single capture thread writes the buffer; readers copy frames out of it without locking, 
+ *  retrying if the frame they read was overwritten meanwhile. Frames read without a frame to reuse
+ *  are taken from the {@link FramePool}.
+ * @author Miri Yehezkel
+ * @see IFrameBuffer
+ */
+public class FrameGrabber implements IFrameBuffer {
+	private final Logger logger = LoggerFactory.getLogger(FrameGrabber.class);
+	private final IFrameSource source;
+	private final Frame[] slots;
+	private final StampedLock[] slotLocks;
+	private final long frameInterval;
+	private final long firstFrameTimeout = 10000;
+	//wait between reads once the source has no more frames (e.g. a replay that doesn't loop)
+	private final long endOfStreamInterval = 100;
+	//sequence of the most recent complete frame
+	private final AtomicLong latest = new AtomicLong(-1);
+	private final Object frameSignal = new Object();
+	private Thread thread;
+	private final Histogram openTime = Metrics.INSTANCE.histogram("camcapture_camera_open_seconds", 
+			"Time opening the frame source takes");
+	private final Histogram grabTime = Metrics.INSTANCE.histogram("camcapture_frame_grab_seconds", 
+			"Time reading a frame from the frame source takes");
+	private final Counter framesCaptured = Metrics.INSTANCE.counter("camcapture_frames_captured_total", 
+			"Frames captured into the frame buffer");
+	
+	
+	/**
+	 * @param source source to capture from
+	 * @param capacity number of frames to buffer
+	 * @param fps max frames captured per second, {@code 0} to capture as fast as source delivers
+	 */
+	public FrameGrabber(IFrameSource source, int capacity, int fps) {
+		this.source = source;
+		this.frameInterval = fps > 0 ? 1000 / fps : 0;
+		Dimension size = source.getSize();
+		slots = new Frame[Math.max(3, capacity)];
+		slotLocks = new StampedLock[slots.length];
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = new Frame(size.width, size.height);
+			slotLocks[i] = new StampedLock();
+		}
+	}
+	
+	/**
+	 * Starts capture thread (if not started).
+	 */
+	public synchronized void start() {
+		if (thread != null)
+			return;
+		thread = new DaemonThreadFactory("frame-grabber").newThread(this::capture);
+		thread.start();
+		logger.trace("Started frame grabber ({} frames buffered)", slots.length);
+	}
+	
+	/**
+	 * Stops capture thread.
+	 */
+	public synchronized void stop() {
+		if (thread == null)
+			return;
+		thread.interrupt();
+		thread = null;
+	}
+	
+	@Override
+	public Frame getLatestFrame() throws CameraException {
+		return getNextFrame(-1, null, firstFrameTimeout);
+	}
+	
+	@Override
+	public Frame getLatestFrame(CaptureProfile profile) throws CameraException {
+		return getNextFrame(-1, null, firstFrameTimeout, profile);
+	}
+	
+	@Override
+	public Frame getNextFrame(long sequence, Frame reuse, long timeout) throws CameraException {
+		return getNextFrame(sequence, reuse, timeout, null);
+	}
+	
+	@Override
+	public Frame getNextFrame(long sequence, Frame reuse, long timeout, CaptureProfile profile) throws CameraException {
+		start();
+		long deadline = System.currentTimeMillis() + timeout;
+		//given frame stays the caller's until another frame is returned in its place
+		Frame frame = reuse;
+		try {
+			while (true) {
+				long newest = latest.get();
+				long wanted = sequence < 0 ? newest : sequence + 1;
+				if (newest >= 0 && wanted <= newest) {
+					wanted = Math.max(wanted, getOldestSequence(newest));
+					BufferedImage image = slots[index(wanted)].getImage();
+					int width = profile == null ? image.getWidth() : profile.getWidth(image.getWidth());
+					int height = profile == null ? image.getHeight() : profile.getHeight(image.getWidth(), image.getHeight());
+					if (frame == null || (profile != null 
+							&& (frame.getImage().getWidth() != width || frame.getImage().getHeight() != height))) {
+						if (frame != reuse)
+							FramePool.INSTANCE.release(frame);
+						frame = FramePool.INSTANCE.acquire(width, height);
+					}
+					if (copySlot(wanted, frame, profile != null)) {
+						if (frame != reuse)
+							FramePool.INSTANCE.release(reuse);
+						return frame;
+					}
+					continue;
+				}
+				awaitFrame(wanted, deadline);
+			}
+		} catch (CameraException | RuntimeException exc) {
+			if (frame != reuse)
+				FramePool.INSTANCE.release(frame);
+			throw exc;
+		}
+	}
+	
+	@Override
+	public List<Frame> getFrames(long fromTime, long toTime) {
+		List<Frame> frames = new ArrayList<>();
+		long newest = latest.get();
+		for (long sequence = getOldestSequence(newest); sequence <= newest; sequence++) {
+			BufferedImage image = slots[index(sequence)].getImage();
+			Frame frame = new Frame(image.getWidth(), image.getHeight());
+			if (copySlot(sequence, frame, false) && frame.getTimestamp() >= fromTime && frame.getTimestamp() <= toTime)
+				frames.add(frame);
+		}
+		return frames;
+	}
+	
+	@Override
+	public int getBufferedFrames() {
+		return (int) Math.min(latest.get() + 1, slots.length - 1);
+	}
+	
+	
+	/**
+	 * Capture loop. Reads frames from source at the configured rate until interrupted.
+	 */
+	private void capture() {
+		while (! Thread.currentThread().isInterrupted()) {
+			long start = System.currentTimeMillis();
+			try {
+				if (! source.isOpen()) {
+					long openStart = System.nanoTime();
+					source.open();
+					openTime.recordSince(openStart);
+				}
+				long grabStart = System.nanoTime();
+				BufferedImage image = source.read();
+				grabTime.recordSince(grabStart);
+				if (image != null) {
+					publish(image, start);
+					framesCaptured.increment();
+				}
+				long interval = image != null ? frameInterval : Math.max(frameInterval, endOfStreamInterval);
+				long remaining = interval - (System.currentTimeMillis() - start);
+				if (remaining > 0)
+					Thread.sleep(remaining);
+			} catch (InterruptedException exc) {
+				Thread.currentThread().interrupt();
+			} catch (CameraException | RuntimeException exc) {
+				logger.error("Unable to capture frame: " + exc.getMessage(), exc);
+				try {
+					Thread.sleep(1000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+		logger.trace("Stopped frame grabber");
+	}
+	
+	/**
+	 * Writes image to the next slot of the ring buffer and notifies waiting readers.
+	 * @param image captured image
+	 * @param timestamp capture time
+	 */
+	private void publish(BufferedImage image, long timestamp) {
+		long sequence = latest.get() + 1;
+		int index = index(sequence);
+		long stamp = slotLocks[index].writeLock();
+		try {
+			slots[index].set(image, timestamp, sequence);
+		} finally {
+			slotLocks[index].unlockWrite(stamp);
+		}
+		latest.set(sequence);
+		synchronized (frameSignal) {
+			frameSignal.notifyAll();
+		}
+	}
+	
+	/**
+	 * Copies a buffered frame. Doesn't block the capture thread - 
+	 *  fails if the slot is being written or was overwritten while copying.
+	 * @param sequence sequence of frame to copy
+	 * @param target frame to copy into
+	 * @param scale {@code true} to scale frame to target's size, {@code false} to copy it as is
+	 * @return {@code true} if frame was copied, {@code false} otherwise
+	 */
+	private boolean copySlot(long sequence, Frame target, boolean scale) {
+		int index = index(sequence);
+		long stamp = slotLocks[index].tryOptimisticRead();
+		if (stamp == 0 || slots[index].getSequence() != sequence)
+			return false;
+		try {
+			if (scale)
+				target.scaleFrom(slots[index]);
+			else
+				target.copyFrom(slots[index]);
+		} catch (RuntimeException exc) {
+			//slot changed while copying
+			return false;
+		}
+		return slotLocks[index].validate(stamp) && target.getSequence() == sequence;
+	}
+	
+	/**
+	 * Waits until frame of given sequence is captured.
+	 * @param sequence sequence of awaited frame
+	 * @param deadline time (in ms) to stop waiting
+	 * @throws CameraException if frame isn't captured by deadline
+	 */
+	private void awaitFrame(long sequence, long deadline) throws CameraException {
+		synchronized (frameSignal) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0)
+				throw new CameraException("No frame captured from camera");
+			if (latest.get() < Math.max(0, sequence)) {
+				try {
+					frameSignal.wait(remaining);
+				} catch (InterruptedException exc) {
+					Thread.currentThread().interrupt();
+					throw new CameraException("Interrupted while waiting for frame", exc);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the oldest sequence that can be read. The slot after the newest frame is left out, 
+	 *  since it's the next one to be overwritten.
+	 * @param newest sequence of newest frame
+	 * @return A long representing the oldest readable sequence
+	 */
+	private long getOldestSequence(long newest) {
+		return Math.max(0, newest - slots.length + 2);
+	}
+	
+	private int index(long sequence) {
+		return (int) (sequence % slots.length);
+	}
+	
+}
@@ -0,0 +1,81 @@
+package org.miri.camcapture.impl;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+import org.miri.camcapture.api.Frame;
+import org.miri.camcapture.api.SettingKeys;
+import org.miri.camcapture.util.Counter;
+import org.miri.camcapture.util.Metrics;
+import org.miri.camcapture.util.Settings;
+
+/**
+ * Recycles frames between uses, so snapshots, videos and motion alerts don't allocate a full-size image each time. <br>
+ * Released frames are kept idle, most recently released first, and handed out again to any path reading frames of
+ *  the same size. Once the pool holds its max number of idle frames, the least recently released is dropped.
+ *  A frame must not be used once released.
+ * @author Miri Yehezkel
+ * @see FrameGrabber
+ */
+enum FramePool {
+	INSTANCE;
+	private final int maxIdle = Math.max(0, Settings.getInt(SettingKeys.FRAME_POOL_SIZE, 16));
+	private final Counter allocated = Metrics.INSTANCE.counter("camcapture_frame_pool_allocated_total",
+			"Frames allocated because no idle frame of their size was pooled");
+	private final Counter reused = Metrics.INSTANCE.counter("camcapture_frame_pool_reused_total",
+			"Frames reused from the pool");
+	//guarded by this, most recently released first
+	private final Deque<Frame> idle = new ArrayDeque<>();
+	
+	
+	private FramePool() {
+		Metrics.INSTANCE.gauge("camcapture_frame_pool_idle", "Idle frames kept for reuse", this::getIdle);
+	}
+	
+	
+	/**
+	 * Returns an idle frame of given size, or a new frame if none is pooled. The frame's content is undefined.
+	 * @param width frame width
+	 * @param height frame height
+	 * @return A {@link Frame} object
+	 */
+	Frame acquire(int width, int height) {
+		synchronized (this) {
+			for (Iterator<Frame> it = idle.iterator(); it.hasNext(); ) {
+				Frame frame = it.next();
+				if (frame.getImage().getWidth() == width && frame.getImage().getHeight() == height) {
+					it.remove();
+					reused.increment();
+					return frame;
+				}
+			}
+		}
+		allocated.increment();
+		return new Frame(width, height);
+	}
+	
+	/**
+	 * Returns frame to the pool.
+	 * @param frame frame no longer used, ignored if {@code null} or already idle
+	 */
+	synchronized void release(Frame frame) {
+		if (frame == null || maxIdle == 0)
+			return;
+		//a frame released twice would be handed out to two users
+		for (Frame idleFrame : idle)
+			if (idleFrame == frame)
+				return;
+		idle.addFirst(frame);
+		if (idle.size() > maxIdle)
+			idle.removeLast();
+	}
+	
+	/**
+	 * @return Number of idle frames
+	 */
+	synchronized long getIdle() {
+		return idle.size();
+	}
+	
+}
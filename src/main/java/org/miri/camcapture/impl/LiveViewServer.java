@@ -0,0 +1,424 @@
+package org.miri.camcapture.impl;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.miri.camcapture.api.CaptureProfile;
+import org.miri.camcapture.api.Frame;
+import org.miri.camcapture.api.ICamera;
+import org.miri.camcapture.api.SettingKeys;
+import org.miri.camcapture.exceptions.CameraException;
+import org.miri.camcapture.util.Counter;
+import org.miri.camcapture.util.DaemonThreadFactory;
+import org.miri.camcapture.util.FileUtil;
+import org.miri.camcapture.util.Histogram;
+import org.miri.camcapture.util.Metrics;
+import org.miri.camcapture.util.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streams live view of the cameras as MJPEG over HTTP, at <i>/live</i> (default camera) and <i>/live/&lt;camera&gt;</i>,
+ *  to be opened in a browser or media player on the local network. <br>
+ * Each camera with viewers is encoded on its own thread, once per frame however many viewers there are.
+ *  The encoded frame is kept in a single buffer that all viewers are written from, by a non-blocking (selector based)
+ *  server thread. A viewer still writing a frame when the next one is encoded skips it and gets the latest frame
+ *  once done, so slow viewers drop frames instead of delaying others. <br>
+ * Disabled unless a port is set.
+ * @author Miri Yehezkel
+ *
+ */
+public enum LiveViewServer {
+	INSTANCE;
+	private final Logger logger = LoggerFactory.getLogger(LiveViewServer.class);
+	private static final String path = "/live";
+	private static final String boundary = "camcapture-frame";
+	//max size of a request's headers, larger requests are rejected
+	private static final int maxRequestSize = 8192;
+	//time (in ns) a viewer may take to receive a frame before it's disconnected
+	private static final long stallTimeout = TimeUnit.SECONDS.toNanos(30);
+	private final int port = Settings.getInt(SettingKeys.LIVE_VIEW_PORT, 0);
+	private final String host = Settings.getString(SettingKeys.LIVE_VIEW_HOST, "0.0.0.0");
+	private final int fps = Math.max(1, Settings.getInt(SettingKeys.LIVE_VIEW_FPS, 10));
+	private final int maxViewers = Math.max(1, Settings.getInt(SettingKeys.LIVE_VIEW_MAX_VIEWERS, 20));
+	private final long frameTimeout = 5000;
+	private final Histogram encodeTime = Metrics.INSTANCE.histogram("camcapture_liveview_encode_seconds",
+			"Time taken to encode a live view frame (once for all viewers)");
+	private final Counter droppedFrames = Metrics.INSTANCE.counter("camcapture_liveview_frames_dropped_total",
+			"Live view frames skipped for viewers still receiving an earlier frame");
+	//stream per camera number
+	private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+	private volatile int viewers;
+	private Selector selector;
+	private ServerSocketChannel serverChannel;
+	
+	
+	private LiveViewServer() {
+		Metrics.INSTANCE.gauge("camcapture_liveview_viewers", "Live view viewers connected", () -> viewers);
+	}
+	
+	
+	/**
+	 * Starts serving live view (if a port is set and not started).
+	 */
+	public synchronized void start() {
+		if (port <= 0 || selector != null)
+			return;
+		try {
+			selector = Selector.open();
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.bind(new InetSocketAddress(host, port));
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+			Selector serving = selector;
+			new DaemonThreadFactory("live-view-server").newThread(() -> serve(serving)).start();
+			logger.info("Serving live view at http://{}:{}{}", host, port, path);
+		} catch (IOException exc) {
+			logger.error("Unable to start live view server: " + exc.getMessage(), exc);
+			stop();
+		}
+	}
+	
+	/**
+	 * Stops serving live view, disconnecting all viewers.
+	 */
+	public synchronized void stop() {
+		if (selector != null) {
+			for (SelectionKey key : selector.keys())
+				FileUtil.closeResource(key.channel());
+			FileUtil.closeResource(selector);
+		}
+		FileUtil.closeResource(serverChannel);
+		selector = null;
+		serverChannel = null;
+	}
+	
+	
+	/**
+	 * Accepts viewers, reads their requests and writes them frames, until selector is closed.
+	 * @param selector selector of the server and viewer channels
+	 */
+	private void serve(Selector selector) {
+		while (true) {
+			try {
+				selector.select(1000);
+				for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+					SelectionKey key = it.next();
+					it.remove();
+					if (! key.isValid())
+						continue;
+					if (key.isAcceptable()) {
+						accept(selector);
+						continue;
+					}
+					Viewer viewer = (Viewer) key.attachment();
+					try {
+						if (key.isReadable())
+							viewer.read();
+						if (key.isValid() && key.isWritable())
+							viewer.write();
+					} catch (IOException exc) {
+						viewer.close();
+					}
+				}
+				//hands the latest frames to viewers done writing the previous one
+				long now = System.nanoTime();
+				for (SelectionKey key : selector.keys()) {
+					if (key.isValid() && key.attachment() instanceof Viewer) {
+						Viewer viewer = (Viewer) key.attachment();
+						try {
+							viewer.offer(now);
+						} catch (IOException exc) {
+							viewer.close();
+						}
+					}
+				}
+			} catch (ClosedSelectorException exc) {
+				return;
+			} catch (IOException exc) {
+				logger.error("Live view server failed: " + exc.getMessage(), exc);
+			}
+		}
+	}
+	
+	/**
+	 * Accepts a pending viewer connection.
+	 * @param selector selector to register viewer with
+	 * @throws IOException if unable to accept
+	 */
+	private void accept(Selector selector) throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null)
+			return;
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		Viewer viewer = new Viewer(channel);
+		viewer.key = channel.register(selector, SelectionKey.OP_READ, viewer);
+	}
+	
+	/**
+	 * Returns stream of camera targeted by request path: <i>/live</i> or <i>/live/&lt;camera&gt;</i>.
+	 * @param target request target
+	 * @return A {@link Stream} object, {@code null} if no camera is targeted
+	 */
+	private Stream getStream(String target) {
+		int query = target.indexOf('?');
+		if (query >= 0)
+			target = target.substring(0, query);
+		try {
+			ICamera camera;
+			if (target.equals(path) || target.equals(path + "/"))
+				camera = CameraRegistry.INSTANCE.getDefault();
+			else if (target.startsWith(path + "/"))
+				camera = CameraRegistry.INSTANCE.getCamera(Integer.parseInt(target.substring(path.length() + 1)));
+			else
+				return null;
+			return streams.computeIfAbsent(camera.getId(), id -> new Stream(camera));
+		} catch (NumberFormatException | CameraException exc) {
+			return null;
+		}
+	}
+	
+	private static ByteBuffer createResponse(String status, String headers) {
+		return ByteBuffer.wrap(("HTTP/1.1 " + status + "\r\n" + headers + "Connection: close\r\n\r\n")
+				.getBytes(StandardCharsets.US_ASCII));
+	}
+	
+	
+	/**
+	 * A frame encoded for all viewers of a stream.
+	 */
+	private static class EncodedFrame {
+		//the frame as a part of the multipart response, shared by all viewers (each writes from a duplicate)
+		private final ByteBuffer part;
+		private final long sequence;
+	
+		EncodedFrame(ByteBuffer part, long sequence) {
+			this.part = part;
+			this.sequence = sequence;
+		}
+	
+	}
+	
+	/**
+	 * Live view of a camera. Encodes frames while it has viewers.
+	 */
+	private class Stream {
+		private final ICamera camera;
+		private final ExecutorService encoder;
+		//latest encoded frame, set by the encoder thread
+		private volatile EncodedFrame latest;
+		//guarded by this
+		private int viewers;
+		private boolean running;
+	
+		Stream(ICamera camera) {
+			this.camera = camera;
+			encoder = Executors.newSingleThreadExecutor(new DaemonThreadFactory("live-view-" + camera.getId()));
+		}
+	
+		synchronized void join() {
+			viewers++;
+			if (! running) {
+				running = true;
+				encoder.execute(this::encode);
+			}
+		}
+	
+		synchronized void leave() {
+			viewers--;
+		}
+	
+		/**
+		 * @return {@code true} if stream has viewers, {@code false} if it's stopped
+		 */
+		private synchronized boolean isWatched() {
+			if (viewers == 0) {
+				running = false;
+				latest = null;
+			}
+			return running;
+		}
+	
+		/**
+		 * Encodes the camera's frames, up to the live view frame rate, while stream has viewers.
+		 */
+		private void encode() {
+			long interval = TimeUnit.SECONDS.toNanos(1) / fps;
+			long sequence = -1;
+			long encoded = 0;
+			Frame frame = null;
+			String contentType = "Content-Type: " + SnapshotEncoder.INSTANCE.getFormat().getMimeType() + "\r\n";
+			while (isWatched()) {
+				long start = System.nanoTime();
+				try {
+					frame = camera.getFrameBuffer().getNextFrame(sequence, frame, frameTimeout, CaptureProfile.LIVE);
+					sequence = frame.getSequence();
+					byte[] image = SnapshotEncoder.INSTANCE.encode(frame.getImage());
+					byte[] header = ("--" + boundary + "\r\n" + contentType + "Content-Length: " + image.length
+							+ "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+					ByteBuffer part = ByteBuffer.allocate(header.length + image.length + 2);
+					part.put(header).put(image).put((byte) '\r').put((byte) '\n').flip();
+					latest = new EncodedFrame(part.asReadOnlyBuffer(), ++encoded);
+					encodeTime.recordSince(start);
+					Selector serving = selector;
+					if (serving != null)
+						serving.wakeup();
+				} catch (CameraException | IOException | RuntimeException exc) {
+					logger.warn("Unable to encode live view of camera {}: {}", camera.getId(), exc.getMessage());
+				}
+				long wait = interval - (System.nanoTime() - start);
+				if (wait > 0) {
+					try {
+						TimeUnit.NANOSECONDS.sleep(wait);
+					} catch (InterruptedException exc) {
+						break;
+					}
+				}
+			}
+			FramePool.INSTANCE.release(frame);
+		}
+	
+	}
+	
+	/**
+	 * A connected viewer. Accessed by the server thread only.
+	 */
+	private class Viewer {
+		private final SocketChannel channel;
+		private SelectionKey key;
+		private ByteBuffer request = ByteBuffer.allocate(1024);
+		private Stream stream;
+		//data being written, null once written
+		private ByteBuffer pending;
+		private long pendingSince;
+		private boolean closeWhenWritten;
+		//sequence of the last frame taken
+		private long sequence;
+	
+		Viewer(SocketChannel channel) {
+			this.channel = channel;
+		}
+	
+		/**
+		 * Reads request, and responds once its headers are read. Input after the request is discarded.
+		 * @throws IOException if unable to read, or viewer disconnected
+		 */
+		void read() throws IOException {
+			if (request == null) {
+				ByteBuffer discarded = ByteBuffer.allocate(256);
+				while (channel.read(discarded) > 0)
+					discarded.clear();
+				if (channel.read(discarded) < 0)
+					throw new IOException("Viewer disconnected");
+				return;
+			}
+			if (! request.hasRemaining()) {
+				if (request.capacity() >= maxRequestSize) {
+					respond(createResponse("431 Request Header Fields Too Large", ""), true);
+					return;
+				}
+				ByteBuffer larger = ByteBuffer.allocate(request.capacity() * 2);
+				request.flip();
+				request = larger.put(request);
+			}
+			if (channel.read(request) < 0)
+				throw new IOException("Viewer disconnected");
+			String content = new String(request.array(), 0, request.position(), StandardCharsets.US_ASCII);
+			if (! content.contains("\r\n\r\n") && ! content.contains("\n\n"))
+				return;
+			request = null;
+			String[] requestLine = content.substring(0, content.indexOf('\n')).trim().split(" ");
+			if (requestLine.length < 2 || ! "GET".equals(requestLine[0])) {
+				respond(createResponse("405 Method Not Allowed", "Allow: GET\r\n"), true);
+				return;
+			}
+			Stream target = getStream(requestLine[1]);
+			if (target == null) {
+				respond(createResponse("404 Not Found", ""), true);
+				return;
+			}
+			if (viewers >= maxViewers) {
+				respond(createResponse("503 Service Unavailable", "Retry-After: 60\r\n"), true);
+				return;
+			}
+			viewers++;
+			stream = target;
+			stream.join();
+			respond(createResponse("200 OK", "Content-Type: multipart/x-mixed-replace; boundary=" + boundary
+					+ "\r\nCache-Control: no-cache, no-store\r\nPragma: no-cache\r\n"), false);
+		}
+	
+		/**
+		 * Writes as much of the pending data as the channel takes now, waiting to write the rest when it's writable.
+		 * @throws IOException if unable to write
+		 */
+		void write() throws IOException {
+			channel.write(pending);
+			if (pending.hasRemaining()) {
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				return;
+			}
+			pending = null;
+			key.interestOps(SelectionKey.OP_READ);
+			if (closeWhenWritten)
+				close();
+		}
+	
+		/**
+		 * Starts writing stream's latest frame, if done writing and a newer frame was encoded.
+		 *  Disconnects viewer if stalled on a frame.
+		 * @param now current time (in ns)
+		 * @throws IOException if unable to write
+		 */
+		void offer(long now) throws IOException {
+			if (pending != null) {
+				if (now - pendingSince > stallTimeout)
+					close();
+				return;
+			}
+			EncodedFrame frame = stream == null ? null : stream.latest;
+			if (frame == null || frame.sequence <= sequence)
+				return;
+			if (sequence > 0 && frame.sequence > sequence + 1)
+				droppedFrames.add(frame.sequence - sequence - 1);
+			sequence = frame.sequence;
+			pending = frame.part.duplicate();
+			pendingSince = now;
+			write();
+		}
+	
+		private void respond(ByteBuffer response, boolean close) throws IOException {
+			request = null;
+			closeWhenWritten = close;
+			pending = response;
+			pendingSince = System.nanoTime();
+			write();
+		}
+	
+		void close() {
+			if (stream != null) {
+				stream.leave();
+				viewers--;
+				stream = null;
+			}
+			key.cancel();
+			FileUtil.closeResource(channel);
+		}
+	
+	}
+	
+}
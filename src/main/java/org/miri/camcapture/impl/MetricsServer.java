@@ -0,0 +1,74 @@
+package org.miri.camcapture.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+import org.miri.camcapture.api.SettingKeys;
+import org.miri.camcapture.util.DaemonThreadFactory;
+import org.miri.camcapture.util.Metrics;
+import org.miri.camcapture.util.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves {@link Metrics} in the Prometheus text format at <i>/metrics</i>. <br>
+ * Disabled unless a port is set; listens on localhost by default.
+ * @author Miri Yehezkel
+ *
+ */
+public enum MetricsServer {
+	INSTANCE;
+	private final Logger logger = LoggerFactory.getLogger(MetricsServer.class);
+	private final int port = Settings.getInt(SettingKeys.METRICS_PORT, 0);
+	private final String host = Settings.getString(SettingKeys.METRICS_HOST, "127.0.0.1");
+	private HttpServer server;
+	
+	
+	/**
+	 * Starts serving metrics (if a port is set and not started).
+	 */
+	public synchronized void start() {
+		if (port <= 0 || server != null)
+			return;
+		try {
+			server = HttpServer.create(new InetSocketAddress(host, port), 0);
+			server.createContext("/metrics", this::handle);
+			server.setExecutor(Executors.newSingleThreadExecutor(new DaemonThreadFactory("metrics-server")));
+			server.start();
+			logger.info("Serving metrics at http://{}:{}/metrics", host, port);
+		} catch (IOException exc) {
+			logger.error("Unable to start metrics server: " + exc.getMessage(), exc);
+			server = null;
+		}
+	}
+	
+	/**
+	 * Stops serving metrics.
+	 */
+	public synchronized void stop() {
+		if (server != null)
+			server.stop(0);
+		server = null;
+	}
+	
+	
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			byte[] body = Metrics.INSTANCE.toPrometheusText().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+	
+}
@@ -0,0 +1,303 @@
+package org.miri.camcapture.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.miri.camcapture.api.Capture;
+import org.miri.camcapture.api.CaptureProfile;
+import org.miri.camcapture.api.Frame;
+import org.miri.camcapture.api.ICamera;
+import org.miri.camcapture.api.ITelegram;
+import org.miri.camcapture.api.SettingKeys;
+import org.miri.camcapture.exceptions.CameraException;
+import org.miri.camcapture.util.Counter;
+import org.miri.camcapture.util.DaemonThreadFactory;
+import org.miri.camcapture.util.Metrics;
+import org.miri.camcapture.util.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Turns detected motion into alerts. <br>
+ * The first frame of a burst of motion is sent right away. While motion continues, the most significant 
+ *  frames after it are kept, and once motion stops they are sent together as a single album - or, if motion clips are enabled,
+ *  a clip of the burst is sent instead (see {@link MotionClipRecorder}). 
+ *  Each chat has a cooldown between bursts and a cap on alerts per minute. <br>
+ * Alerts are sent on a background thread, so detection never waits for uploads.
+ * @author Miri Yehezkel
+ * @see MotionDetector
+ */
+class MotionAlerter {
+	private final Logger logger = LoggerFactory.getLogger(MotionAlerter.class);
+	private final long cooldown = Settings.getLong(SettingKeys.MOTION_INTERVAL, 10000);
+	private final long burstQuiet = Settings.getLong(SettingKeys.MOTION_BURST_QUIET, 3000);
+	private final long burstMax = Settings.getLong(SettingKeys.MOTION_BURST_MAX, 30000);
+	private final int albumSize = Math.max(1, Math.min(10, Settings.getInt(SettingKeys.MOTION_ALBUM_SIZE, 4)));
+	private final int alertsPerMinute = Settings.getInt(SettingKeys.MOTION_ALERTS_PER_MINUTE, 6);
+	private final MotionClipRecorder clipRecorder;
+	private final ExecutorService sender = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, 
+			new LinkedBlockingQueue<>(20), new DaemonThreadFactory("motion-alerts"), 
+			(task, executor) -> logger.warn("Too many pending motion alerts, alert dropped"));
+	//recent alert times per chat (read and written by detection thread only)
+	private final Map<String, Deque<Long>> alertTimes = new ConcurrentHashMap<>();
+	private final Counter motionEvents = Metrics.INSTANCE.counter("camcapture_motion_events_total", 
+			"Bursts of motion alerted");
+	private final ITelegram telegram;
+	private final ICamera camera;
+	private final String caption;
+	//current burst (accessed by detection thread only)
+	private List<String> burstChats;
+	private long burstStart;
+	private long lastMotion;
+	private MotionClipRecorder.Clip clip;
+	private Frame[] albumFrames;
+	private double[] albumAreas;
+	private int albumCount;
+	
+	
+	/**
+	 * @param telegram used to send alerts
+	 * @param camera camera motion is detected on
+	 * @param caption caption of the first image of a burst
+	 */
+	MotionAlerter(ITelegram telegram, ICamera camera, String caption) {
+		this.telegram = telegram;
+		this.camera = camera;
+		this.caption = caption;
+		//a clip ends with its burst, at most a burst's max length (plus its quiet time) after motion was detected
+		clipRecorder = Settings.getBoolean(SettingKeys.MOTION_CLIP_ENABLED, false) 
+				? new MotionClipRecorder(camera, burstMax + burstQuiet) : null;
+	}
+	
+	/**
+	 * Adds chat to alerted chats.
+	 * @param chatId Id of telegram chat
+	 */
+	void addChat(String chatId) {
+		alertTimes.putIfAbsent(chatId, new ArrayDeque<>());
+	}
+	
+	/**
+	 * Removes chat from alerted chats.
+	 * @param chatId Id of telegram chat
+	 * @return {@code true} if no chats are left, {@code false} otherwise
+	 */
+	boolean removeChat(String chatId) {
+		alertTimes.remove(chatId);
+		return alertTimes.isEmpty();
+	}
+	
+	/**
+	 * Handles an analyzed frame. Called by the detection thread for every frame.
+	 * @param frame analyzed frame
+	 * @param motion {@code true} if motion was detected in frame
+	 * @param area fraction of frame with motion
+	 */
+	void onFrame(Frame frame, boolean motion, double area) {
+		long now = frame.getTimestamp();
+		if (burstChats != null && (now - lastMotion >= burstQuiet || now - burstStart >= burstMax))
+			endBurst(now);
+		if (! motion)
+			return;
+		if (burstChats == null) {
+			//the first frame is sent when the burst starts, so it's not kept for the album
+			if (startBurst(frame, now))
+				lastMotion = now;
+			return;
+		}
+		lastMotion = now;
+		keepIfSignificant(frame, area);
+	}
+	
+	
+	/**
+	 * Starts a burst for chats out of cooldown and under their alert cap, sending them the first frame.
+	 * @param frame first frame with motion
+	 * @param now frame time
+	 * @return {@code true} if a burst started, {@code false} if no chat is alerted
+	 */
+	private boolean startBurst(Frame frame, long now) {
+		List<String> chats = new ArrayList<>();
+		for (String chatId : alertTimes.keySet()) {
+			Deque<Long> times = alertTimes.get(chatId);
+			if (times != null && (times.isEmpty() || now - times.peekLast() >= cooldown) && tryAlert(times, now))
+				chats.add(chatId);
+		}
+		if (chats.isEmpty())
+			return false;
+		motionEvents.increment();
+		burstChats = chats;
+		burstStart = now;
+		albumFrames = new Frame[albumSize];
+		albumAreas = new double[albumSize];
+		albumCount = 0;
+		if (clipRecorder != null)
+			clip = clipRecorder.start(frame);
+		Frame first = readSnapshot(frame, null);
+		sender.execute(() -> {
+			try {
+				Capture image = camera.captureImage(first.getImage(), chats.get(0));
+				for (String chatId : chats)
+					telegram.sendImage(chatId, image, caption);
+			} catch (Exception exc) {
+				logger.error("Unable to send image for detected motion: " + exc.getMessage(), exc);
+			} finally {
+				FramePool.INSTANCE.release(first);
+			}
+		});
+		return true;
+	}
+	
+	/**
+	 * Keeps a copy of frame if it's among the most significant frames of the burst.
+	 * Frames are copied into album frames, taken from the {@link FramePool} once per burst.
+	 * @param frame frame with motion
+	 * @param area fraction of frame with motion
+	 */
+	private void keepIfSignificant(Frame frame, double area) {
+		int index = albumCount;
+		if (albumCount == albumSize) {
+			index = 0;
+			for (int i = 1; i < albumSize; i++)
+				if (albumAreas[i] < albumAreas[index])
+					index = i;
+			if (albumAreas[index] >= area)
+				return;
+		} else {
+			albumCount++;
+		}
+		albumFrames[index] = readSnapshot(frame, albumFrames[index]);
+		albumAreas[index] = area;
+	}
+	
+	/**
+	 * Reads an analyzed frame at snapshot resolution, since frames are analyzed downscaled. 
+	 *  Falls back to a copy of the analyzed frame if the frame can't be read.
+	 * @param frame analyzed frame
+	 * @param reuse frame to copy into, {@code null} to create a new frame
+	 * @return A {@link Frame} holding the frame at snapshot resolution
+	 */
+	private Frame readSnapshot(Frame frame, Frame reuse) {
+		try {
+			//the frame is still buffered, so this doesn't wait
+			return camera.getFrameBuffer().getNextFrame(frame.getSequence() - 1, reuse, 0, CaptureProfile.SNAPSHOT);
+		} catch (CameraException exc) {
+			logger.warn("Unable to read motion frame at snapshot resolution: {}", exc.getMessage());
+			FramePool.INSTANCE.release(reuse);
+			Frame copy = FramePool.INSTANCE.acquire(frame.getImage().getWidth(), frame.getImage().getHeight());
+			copy.copyFrom(frame);
+			return copy;
+		}
+	}
+	
+	/**
+	 * Ends burst, sending its clip (once encoded) or its most significant frames (in capture order) as an album 
+	 *  to the burst's chats that are still under their alert cap. The album is also sent if the clip couldn't be recorded.
+	 *  A burst of a single frame sends nothing more, and takes no alert.
+	 * @param end time of the frame ending the burst
+	 */
+	private void endBurst(long end) {
+		List<Frame> frames = new ArrayList<>();
+		for (int i = 0; i < albumCount; i++)
+			frames.add(albumFrames[i]);
+		frames.sort((a, b) -> Long.compare(a.getSequence(), b.getSequence()));
+		MotionClipRecorder.Clip burstClip = clip;
+		List<String> alerted = burstChats;
+		burstChats = null;
+		albumFrames = null;
+		clip = null;
+		if (burstClip == null && frames.isEmpty())
+			return;
+		List<String> chats = new ArrayList<>();
+		long now = lastMotion;
+		for (String chatId : alerted) {
+			Deque<Long> times = alertTimes.get(chatId);
+			if (times != null && tryAlert(times, now))
+				chats.add(chatId);
+		}
+		if (burstClip != null) {
+			//stopped even if no chat is alerted, so recording ends
+			burstClip.stop(end, chats.isEmpty() ? null : chats.get(0), video -> {
+				if (video == null && ! chats.isEmpty() && ! frames.isEmpty()) {
+					sender.execute(() -> sendAlbum(frames, chats));
+					return;
+				}
+				releaseFrames(frames);
+				if (video != null && ! chats.isEmpty())
+					sender.execute(() -> sendClip(video, chats));
+			});
+			return;
+		}
+		if (chats.isEmpty() || frames.isEmpty()) {
+			releaseFrames(frames);
+			return;
+		}
+		sender.execute(() -> sendAlbum(frames, chats));
+	}
+	
+	/**
+	 * Sends frames of a burst to chats as an album. Called by the sender thread.
+	 *  Frames are returned to the pool once encoded.
+	 * @param frames frames to send
+	 * @param chats chats to send to
+	 */
+	private void sendAlbum(List<Frame> frames, List<String> chats) {
+		try {
+			List<Capture> images = new ArrayList<>();
+			try {
+				for (Frame frame : frames)
+					images.add(camera.captureImage(frame.getImage(), chats.get(0)));
+			} finally {
+				releaseFrames(frames);
+			}
+			for (String chatId : chats)
+				telegram.sendImages(chatId, images);
+		} catch (Exception exc) {
+			logger.error("Unable to send images for detected motion: " + exc.getMessage(), exc);
+		}
+	}
+	
+	/**
+	 * Archives clip of a burst and sends it to chats, uploading it once. Called by the sender thread.
+	 * @param video encoded clip
+	 * @param chats chats to send to
+	 */
+	private void sendClip(Capture video, List<String> chats) {
+		CaptureArchiver.INSTANCE.archive(video);
+		try {
+			for (String chatId : chats)
+				telegram.sendVideo(chatId, video, null);
+		} catch (Exception exc) {
+			logger.error("Unable to send clip of detected motion: " + exc.getMessage(), exc);
+		}
+	}
+	
+	private void releaseFrames(List<Frame> frames) {
+		for (Frame frame : frames)
+			FramePool.INSTANCE.release(frame);
+	}
+	
+	/**
+	 * Records an alert if chat is under its alert cap.
+	 * @param times chat's recent alert times
+	 * @param now alert time
+	 * @return {@code true} if alert is allowed, {@code false} otherwise
+	 */
+	private boolean tryAlert(Deque<Long> times, long now) {
+		while (! times.isEmpty() && now - times.peekFirst() >= 60000)
+			times.pollFirst();
+		if (times.size() >= alertsPerMinute)
+			return false;
+		times.addLast(now);
+		return true;
+	}
+	
+}
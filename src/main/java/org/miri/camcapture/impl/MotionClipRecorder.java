@@ -0,0 +1,177 @@
+package org.miri.camcapture.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import org.miri.camcapture.api.Capture;
+import org.miri.camcapture.api.CaptureProfile;
+import org.miri.camcapture.api.Frame;
+import org.miri.camcapture.api.ICamera;
+import org.miri.camcapture.api.IFrameBuffer;
+import org.miri.camcapture.api.SettingKeys;
+import org.miri.camcapture.api.VideoOptions;
+import org.miri.camcapture.exceptions.CameraException;
+import org.miri.camcapture.util.DaemonThreadFactory;
+import org.miri.camcapture.util.Histogram;
+import org.miri.camcapture.util.Metrics;
+import org.miri.camcapture.util.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records motion clips - short H.264 videos of a burst of motion, starting a pre-roll before motion was detected
+ *  and ending once the burst ends. <br>
+ * Frames are read from the camera's frame buffer and encoded into a temporary file as they arrive, on the recorder's
+ *  own thread, so memory stays bounded however long the burst is and detection never waits for encoding.
+ *  The pre-roll is read back from the frame buffer, so it's bounded by the frames the buffer holds.
+ *  If encoding falls behind, frames no longer buffered are skipped.
+ * @author Miri Yehezkel
+ * @see MotionAlerter
+ */
+class MotionClipRecorder {
+	private final Logger logger = LoggerFactory.getLogger(MotionClipRecorder.class);
+	private static final String clipFileType = ".mp4";
+	private static final String clipMimeType = "video/mp4";
+	private final long preRoll = Math.max(0, Settings.getLong(SettingKeys.MOTION_CLIP_PREROLL, 2000));
+	private final int fps = Settings.getInt(SettingKeys.GRABBER_FPS, 10);
+	private final long frameTimeout = 5000;
+	private final Histogram finishTime = Metrics.INSTANCE.histogram("camcapture_motion_clip_finish_seconds",
+			"Time from end of a burst of motion until its clip is encoded");
+	private final ICamera camera;
+	private final long maxLength;
+	private final ExecutorService recorder;
+	
+	
+	/**
+	 * @param camera camera to record from
+	 * @param maxLength max clip length (in ms) after pre-roll, in case the clip is never stopped
+	 */
+	MotionClipRecorder(ICamera camera, long maxLength) {
+		this.camera = camera;
+		this.maxLength = maxLength;
+		recorder = Executors.newSingleThreadExecutor(new DaemonThreadFactory("motion-clip-" + camera.getId()));
+	}
+	
+	/**
+	 * Starts recording a clip. Clips are recorded one at a time, a clip started while another is still
+	 *  being encoded is recorded after it.
+	 * @param trigger first frame with motion
+	 * @return A {@link Clip} to stop once motion ends
+	 */
+	Clip start(Frame trigger) {
+		Clip clip = new Clip(trigger.getSequence(), trigger.getTimestamp());
+		recorder.execute(() -> record(clip));
+		return clip;
+	}
+	
+	
+	/**
+	 * Records clip until its end time, starting with the buffered frames of the pre-roll.
+	 * @param clip clip to record
+	 */
+	private void record(Clip clip) {
+		File file = null;
+		VideoEncoder encoder = null;
+		try {
+			IFrameBuffer frameBuffer = camera.getFrameBuffer();
+			file = File.createTempFile("motion", clipFileType);
+			long from = clip.triggerTime - preRoll;
+			long until = clip.triggerTime + maxLength;
+			//without a capture rate the pre-roll can't be counted in frames, so it's read from the oldest buffered frame
+			long sequence = fps > 0 ? Math.max(0, clip.triggerSequence - preRoll * fps / 1000 - 1) : 0;
+			long start = -1;
+			Frame frame = null;
+			while (true) {
+				frame = frameBuffer.getNextFrame(sequence, frame, frameTimeout, CaptureProfile.VIDEO);
+				sequence = frame.getSequence();
+				long time = frame.getTimestamp();
+				if (time < from)
+					continue;
+				if (time > clip.end || time > until)
+					break;
+				if (encoder == null) {
+					encoder = new VideoEncoder(file, frame.getImage().getWidth(), frame.getImage().getHeight(),
+							new VideoOptions(0, fps > 0 ? fps : VideoOptions.getDefault().getFps(),
+									VideoOptions.getDefault().getBitRate()));
+					start = time;
+				}
+				encoder.encode(frame.getImage(), (time - start) * 1000);
+			}
+			if (encoder == null)
+				throw new CameraException("No frames captured during motion");
+			encoder.close();
+			encoder = null;
+			clip.finish(Files.readAllBytes(file.toPath()), start);
+		} catch (CameraException | IOException | RuntimeException exc) {
+			logger.error("Unable to record motion clip on camera " + camera.getId() + ": " + exc.getMessage(), exc);
+			clip.finish(null, 0);
+		} finally {
+			if (encoder != null) {
+				try {
+					encoder.close();
+				} catch (RuntimeException exc) {
+					//already failed
+				}
+			}
+			if (file != null && ! file.delete())
+				file.deleteOnExit();
+		}
+	}
+	
+	
+	/**
+	 * A clip being recorded.
+	 */
+	class Clip {
+		private final long triggerSequence;
+		private final long triggerTime;
+		//end time, set by the detection thread
+		private volatile long end = Long.MAX_VALUE;
+		private long stopped;
+		private boolean finished;
+		private byte[] data;
+		private long time;
+		private String chatId;
+		private Consumer<Capture> listener;
+	
+		private Clip(long triggerSequence, long triggerTime) {
+			this.triggerSequence = triggerSequence;
+			this.triggerTime = triggerTime;
+		}
+	
+		/**
+		 * Stops clip at given time. Frames up to that time are still encoded, then the encoded clip is passed to listener.
+		 * @param time time (in ms) of the last frame to record
+		 * @param chatId Id of the chat the clip is archived for
+		 * @param listener receives the encoded clip, or {@code null} if it couldn't be recorded
+		 */
+		synchronized void stop(long time, String chatId, Consumer<Capture> listener) {
+			end = time;
+			stopped = System.nanoTime();
+			this.chatId = chatId;
+			this.listener = listener;
+			if (finished)
+				deliver();
+		}
+	
+		private synchronized void finish(byte[] data, long time) {
+			finished = true;
+			this.data = data;
+			this.time = time;
+			if (listener != null) {
+				finishTime.recordSince(stopped);
+				deliver();
+			}
+		}
+	
+		private void deliver() {
+			listener.accept(data == null ? null : new Capture(chatId, time, data, clipFileType, clipMimeType));
+		}
+	
+	}
+	
+}
@@ -1,53 +1,151 @@
 package org.miri.camcapture.impl;
 
-import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 
+import org.miri.camcapture.api.CaptureProfile;
+import org.miri.camcapture.api.Frame;
 import org.miri.camcapture.api.ICamera;
-import org.miri.camcapture.api.ITelegram;
+import org.miri.camcapture.exceptions.CameraException;
+import org.miri.camcapture.util.Counter;
+import org.miri.camcapture.util.DaemonThreadFactory;
+import org.miri.camcapture.util.Histogram;
+import org.miri.camcapture.util.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.github.sarxos.webcam.Webcam;
-import com.github.sarxos.webcam.WebcamMotionDetector;
-import com.github.sarxos.webcam.WebcamMotionEvent;
-import com.github.sarxos.webcam.WebcamMotionListener;
-
-public enum MotionDetector implements WebcamMotionListener {
+/**
+ * Detects motion in every frame read from a camera's frame buffer and alerts subscribed chats. <br>
+ * Each camera is analyzed on its own thread, so detection runs on all cameras simultaneously.
+ * @author Miri Yehezkel
+ *
+ */
+public enum MotionDetector {
 	INSTANCE;
 	private final Logger logger = LoggerFactory.getLogger(MotionDetector.class);
-	private WebcamMotionDetector detector;
-	private String chatId;
-	private ITelegram telegram;
-	private ICamera camera;
+	private final long frameTimeout = 5000;
+	private final Histogram analysisTime = Metrics.INSTANCE.histogram("camcapture_motion_analysis_seconds",
+			"Time motion detection takes per frame");
+	private final Counter motionFrames = Metrics.INSTANCE.counter("camcapture_motion_frames_total",
+			"Frames motion was detected in");
+	//detection per camera number
+	private final Map<Integer, Detection> detections = new HashMap<>();
 	
 	
-	private MotionDetector() {
-		telegram = Telegram.INSTANCE;
-		camera = DefaultCamera.INSTANCE;
-		detector = new WebcamMotionDetector(Webcam.getDefault());
-		detector.setInterval(10000); // 10000 ms = 1 s
+	/**
+	 * Starts sending motion detected by camera to chat. Starts detection on camera if not started.
+	 * @param chatId Id of telegram chat
+	 * @param camera camera to detect motion on
+	 */
+	public synchronized void start(String chatId, ICamera camera) {
+		Detection detection = detections.get(camera.getId());
+		if (detection == null) {
+			detection = new Detection(camera);
+			detections.put(camera.getId(), detection);
+		}
+		detection.alerter.addChat(chatId);
+		if (detection.thread == null) {
+			//a stopped thread may still be analyzing a frame, so the new thread waits for it to exit
+			Thread previous = detection.stopped;
+			Detection started = detection;
+			detection.thread = new DaemonThreadFactory("motion-detector-" + camera.getId()).newThread(
+					() -> started.detect(previous));
+			detection.stopped = null;
+			detection.thread.start();
+		}
 	}
 	
-	public void start(String chatId) {
-		this.chatId = chatId;
-		detector.addMotionListener(this);
-		detector.start();
+	/**
+	 * Stops sending motion detected by camera to chat. Stops detection on camera once no chat is left. 
+	 *  Detection ends in the background, once the frame being analyzed is done.
+	 * @param chatId Id of telegram chat
+	 * @param camera camera to stop detecting motion on
+	 */
+	public synchronized void stop(String chatId, ICamera camera) {
+		Detection detection = detections.get(camera.getId());
+		if (detection != null && detection.alerter.removeChat(chatId) && detection.thread != null) {
+			detection.thread.interrupt();
+			detection.stopped = detection.thread;
+			detection.thread = null;
+		}
 	}
 	
-	public void stop() {
-		detector.removeMotionListener(this);
-	}
 	
-	@Override
-	public void motionDetected(WebcamMotionEvent wme) {
-		try {
-			File image = camera.saveImage(wme.getCurrentImage(), chatId);
-			telegram.sendMessage(chatId, "Motion detected!");
-			telegram.sendImage(chatId, image);
-		} catch (Exception exc) {
-			logger.error("Unable to send image for detected motion: " + exc.getMessage(), exc);
+	/**
+	 * Motion detection on a single camera.
+	 */
+	private class Detection {
+		private final ICamera camera;
+		private final MotionEngine engine = new MotionEngine();
+		private final MotionAlerter alerter;
+		private Thread thread;
+		//last stopped thread, which may still be running
+		private Thread stopped;
+	
+		Detection(ICamera camera) {
+			this.camera = camera;
+			String caption = CameraRegistry.INSTANCE.getCameras().size() > 1
+					? "Motion detected on camera " + camera.getId() + " (" + camera.getName() + ")!" : "Motion detected!";
+			alerter = new MotionAlerter(Telegram.INSTANCE, camera, caption);
+		}
+	
+		/**
+		 * Detection loop. Analyzes every captured frame until stopped. 
+		 *  A frame that fails to be analyzed is skipped, so detection goes on. <br>
+		 * The engine and alerter aren't thread-safe, so detection starts only once the previous thread exited.
+		 * @param previous previously stopped detection thread, {@code null} if none
+		 */
+		private void detect(Thread previous) {
+			Frame frame = null;
+			try {
+				awaitExit(previous);
+				engine.reset();
+				while (! Thread.currentThread().isInterrupted()) {
+					try {
+						frame = camera.getFrameBuffer().getNextFrame(frame == null ? -1 : frame.getSequence(), frame, 
+								frameTimeout, CaptureProfile.DETECTION);
+						long start = System.nanoTime();
+						boolean motion = engine.detect(frame.getImage());
+						analysisTime.recordSince(start);
+						if (motion)
+							motionFrames.increment();
+						alerter.onFrame(frame, motion, engine.getMotionArea());
+					} catch (CameraException exc) {
+						if (! Thread.currentThread().isInterrupted())
+							logger.error("Unable to read frame from camera " + camera.getId() + " for motion detection: "
+									+ exc.getMessage(), exc);
+					} catch (RuntimeException exc) {
+						logger.error("Unable to detect motion on camera " + camera.getId() + ": " + exc.getMessage(), exc);
+					}
+				}
+			} finally {
+				FramePool.INSTANCE.release(frame);
+				//lets detection start again if this thread ended unexpectedly
+				synchronized (MotionDetector.this) {
+					if (thread == Thread.currentThread())
+						thread = null;
+				}
+			}
 		}
-	}
 	
+		/**
+		 * Waits for thread to exit, even if interrupted meanwhile (the interrupt is kept), 
+		 *  so a thread stopped while waiting doesn't exit before the thread it waits for.
+		 * @param previous thread to wait for, {@code null} if none
+		 */
+		private void awaitExit(Thread previous) {
+			boolean interrupted = false;
+			while (previous != null && previous.isAlive()) {
+				try {
+					previous.join();
+				} catch (InterruptedException exc) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	
+	}
 	
 }
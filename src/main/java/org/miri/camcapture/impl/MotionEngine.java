@@ -0,0 +1,214 @@
+package org.miri.camcapture.impl;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+
+import org.miri.camcapture.api.SettingKeys;
+import org.miri.camcapture.util.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Detects motion by comparing frames to an adaptive background. <br>
+ * Frames are downsampled into a reusable luminance grid, which is compared to the background block by block.
+ * A block is changed if its mean luminance difference passes the pixel threshold, and motion is detected 
+ *  if the changed blocks cover more than the area threshold. Blocks inside exclusion zones are ignored. <br>
+ * All buffers are allocated once, so analyzing a frame allocates nothing.
+ * @author Miri Yehezkel
+ *
+ */
+public class MotionEngine {
+	private final Logger logger = LoggerFactory.getLogger(MotionEngine.class);
+	private final int width;
+	private final int height;
+	private final int blockSize;
+	private final int blocksX;
+	private final int blocksY;
+	private final int pixelThreshold;
+	private final double areaThreshold;
+	private final int learningShift;
+	private final int[] luminance;
+	//background luminance in fixed point (8 fractional bits)
+	private final int[] background;
+	private final int[] blockDifference;
+	private final boolean[] excluded;
+	//image pixel sampled by each grid column / row (row offsets are in pixels)
+	private final int[] sampleColumns;
+	private final int[] sampleRows;
+	private int sampledWidth;
+	private int sampledHeight;
+	private int activeBlocks;
+	private int changedBlocks;
+	private boolean initialized;
+	
+	
+	/**
+	 * Creates engine configured by user settings.
+	 */
+	public MotionEngine() {
+		this(Settings.getInt(SettingKeys.MOTION_ANALYSIS_WIDTH, 160), Settings.getInt(SettingKeys.MOTION_ANALYSIS_HEIGHT, 120), 
+				Settings.getInt(SettingKeys.MOTION_BLOCK_SIZE, 8), Settings.getInt(SettingKeys.MOTION_PIXEL_THRESHOLD, 25), 
+				Settings.getInt(SettingKeys.MOTION_AREA_THRESHOLD, 2) / 100.0, Settings.getInt(SettingKeys.MOTION_LEARNING_SHIFT, 4), 
+				Settings.getString(SettingKeys.MOTION_EXCLUDE, ""));
+	}
+	
+	/**
+	 * @param width width of analysis grid
+	 * @param height height of analysis grid
+	 * @param blockSize size (in grid cells) of compared blocks
+	 * @param pixelThreshold mean luminance difference (0-255) of a changed block
+	 * @param areaThreshold fraction (0-1) of blocks that has to change to detect motion
+	 * @param learningShift background adapts by 1/2^learningShift of the difference per frame
+	 * @param exclusionZones zones to ignore, as "x,y,width,height" in percents of the frame, separated by ';'
+	 */
+	public MotionEngine(int width, int height, int blockSize, int pixelThreshold, double areaThreshold, 
+			int learningShift, String exclusionZones) {
+		this.blockSize = Math.max(1, blockSize);
+		this.blocksX = Math.max(1, width / this.blockSize);
+		this.blocksY = Math.max(1, height / this.blockSize);
+		this.width = blocksX * this.blockSize;
+		this.height = blocksY * this.blockSize;
+		this.pixelThreshold = pixelThreshold;
+		this.areaThreshold = areaThreshold;
+		this.learningShift = learningShift;
+		luminance = new int[this.width * this.height];
+		background = new int[luminance.length];
+		blockDifference = new int[blocksX * blocksY];
+		excluded = new boolean[blockDifference.length];
+		sampleColumns = new int[this.width];
+		sampleRows = new int[this.height];
+		parseExclusionZones(exclusionZones);
+	}
+	
+	/**
+	 * Analyzes frame and updates background.
+	 * @param image frame to analyze
+	 * @return {@code true} if motion was detected, {@code false} otherwise
+	 */
+	public boolean detect(BufferedImage image) {
+		downsample(image);
+		if (! initialized) {
+			for (int i = 0; i < luminance.length; i++)
+				background[i] = luminance[i] << 8;
+			initialized = true;
+			return false;
+		}
+		compareBlocks();
+		return activeBlocks > 0 && changedBlocks >= areaThreshold * activeBlocks;
+	}
+	
+	/**
+	 * Returns the fraction of blocks changed in the last analyzed frame. Used to rank frames by motion.
+	 * @return A double between 0 and 1
+	 */
+	public double getMotionArea() {
+		return activeBlocks == 0 ? 0 : (double) changedBlocks / activeBlocks;
+	}
+	
+	/**
+	 * Resets background, so the next frame is used as the new background.
+	 */
+	public void reset() {
+		initialized = false;
+	}
+	
+	
+	/**
+	 * Samples frame luminance into the analysis grid (nearest neighbor).
+	 * Reads pixel bytes directly from BGR images, avoiding per-pixel color conversion.
+	 * @param image frame to sample
+	 */
+	private void downsample(BufferedImage image) {
+		int imageWidth = image.getWidth();
+		int imageHeight = image.getHeight();
+		if (imageWidth != sampledWidth || imageHeight != sampledHeight)
+			mapSamples(imageWidth, imageHeight);
+		byte[] bgr = image.getType() == BufferedImage.TYPE_3BYTE_BGR ? 
+				((DataBufferByte) image.getRaster().getDataBuffer()).getData() : null;
+		for (int y = 0, i = 0; y < height; y++) {
+			int row = sampleRows[y];
+			for (int x = 0; x < width; x++, i++) {
+				int r, g, b;
+				if (bgr != null) {
+					int pixel = (row + sampleColumns[x]) * 3;
+					b = bgr[pixel] & 0xff;
+					g = bgr[pixel + 1] & 0xff;
+					r = bgr[pixel + 2] & 0xff;
+				} else {
+					int rgb = image.getRGB(sampleColumns[x], row / imageWidth);
+					r = (rgb >> 16) & 0xff;
+					g = (rgb >> 8) & 0xff;
+					b = rgb & 0xff;
+				}
+				luminance[i] = (77 * r + 150 * g + 29 * b) >> 8;
+			}
+		}
+	}
+	
+	/**
+	 * Maps analysis grid cells to image pixels. Computed once per image size.
+	 * @param imageWidth width of analyzed images
+	 * @param imageHeight height of analyzed images
+	 */
+	private void mapSamples(int imageWidth, int imageHeight) {
+		for (int x = 0; x < width; x++)
+			sampleColumns[x] = (int) ((long) x * imageWidth / width);
+		for (int y = 0; y < height; y++)
+			sampleRows[y] = (int) ((long) y * imageHeight / height) * imageWidth;
+		sampledWidth = imageWidth;
+		sampledHeight = imageHeight;
+		initialized = false;
+	}
+	
+	/**
+	 * Sums luminance differences per block, counts changed blocks and adapts background.
+	 */
+	private void compareBlocks() {
+		for (int i = 0; i < blockDifference.length; i++)
+			blockDifference[i] = 0;
+		for (int y = 0, i = 0; y < height; y++) {
+			int blockRow = (y / blockSize) * blocksX;
+			for (int x = 0; x < width; x++, i++) {
+				int current = luminance[i] << 8;
+				int difference = current - background[i];
+				blockDifference[blockRow + x / blockSize] += difference < 0 ? -difference : difference;
+				background[i] += difference >> learningShift;
+			}
+		}
+		//block threshold in fixed point, summed over the block's cells
+		long blockThreshold = ((long) pixelThreshold << 8) * blockSize * blockSize;
+		changedBlocks = 0;
+		for (int i = 0; i < blockDifference.length; i++) {
+			if (! excluded[i] && blockDifference[i] > blockThreshold)
+				changedBlocks++;
+		}
+	}
+	
+	/**
+	 * Marks blocks covered by exclusion zones.
+	 * @param zones zones as "x,y,width,height" in percents of the frame, separated by ';'
+	 */
+	private void parseExclusionZones(String zones) {
+		for (String zone : zones.split(";")) {
+			if (zone.trim().isEmpty())
+				continue;
+			String[] values = zone.split(",");
+			try {
+				int x = Integer.parseInt(values[0].trim()) * blocksX / 100;
+				int y = Integer.parseInt(values[1].trim()) * blocksY / 100;
+				int w = (Integer.parseInt(values[2].trim()) * blocksX + 99) / 100;
+				int h = (Integer.parseInt(values[3].trim()) * blocksY + 99) / 100;
+				for (int by = Math.max(0, y); by < Math.min(blocksY, y + h); by++)
+					for (int bx = Math.max(0, x); bx < Math.min(blocksX, x + w); bx++)
+						excluded[by * blocksX + bx] = true;
+			} catch (NumberFormatException | ArrayIndexOutOfBoundsException exc) {
+				logger.warn("Invalid exclusion zone '{}', expected x,y,width,height", zone);
+			}
+		}
+		activeBlocks = 0;
+		for (boolean isExcluded : excluded)
+			if (! isExcluded)
+				activeBlocks++;
+	}
+	
+}
@@ -0,0 +1,279 @@
+package org.miri.camcapture.impl;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.miri.camcapture.api.IFrameSource;
+import org.miri.camcapture.api.SettingKeys;
+import org.miri.camcapture.exceptions.CameraException;
+import org.miri.camcapture.util.Settings;
+import org.miri.camcapture.util.SyntheticImages;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xuggle.mediatool.IMediaReader;
+import com.xuggle.mediatool.MediaListenerAdapter;
+import com.xuggle.mediatool.ToolFactory;
+import com.xuggle.mediatool.event.IVideoPictureEvent;
+
+/**
+ * Replays frames instead of reading them from a camera, so the capture pipeline can run without hardware. <br>
+ * Plays a directory of images (in file name order), a video file, or - if no path is given - a generated scene,
+ *  scaled to the configured resolution and looped. Motion can be scripted as a moving object drawn over
+ *  the frames: <i>quiet,moving</i> repeatedly leaves <i>quiet</i> frames untouched, then moves the object
+ *  across the next <i>moving</i> frames. <br>
+ * Frames are read into a single reused image, so replay allocates nothing per frame
+ *  (except for frames decoded from video).
+ * @author Miri Yehezkel
+ * @see IFrameSource
+ */
+public class ReplayFrameSource implements IFrameSource {
+	private final Logger logger = LoggerFactory.getLogger(ReplayFrameSource.class);
+	private final File path;
+	private final int width;
+	private final int height;
+	private final boolean loop;
+	private final int quietFrames;
+	private final int motionFrames;
+	private BufferedImage output;
+	private Graphics2D graphics;
+	private List<BufferedImage> images;
+	private IMediaReader reader;
+	private BufferedImage decoded;
+	private long index;
+	
+	
+	/**
+	 * Creates source configured by user settings.
+	 */
+	public ReplayFrameSource() {
+		this(toFile(Settings.getString(SettingKeys.REPLAY_PATH, "")), Settings.getInt(SettingKeys.REPLAY_WIDTH, 1280),
+				Settings.getInt(SettingKeys.REPLAY_HEIGHT, 720), Settings.getBoolean(SettingKeys.REPLAY_LOOP, true),
+				Settings.getString(SettingKeys.REPLAY_MOTION, ""));
+	}
+	
+	/**
+	 * @param path directory of images or video file to replay, {@code null} to replay a generated scene
+	 * @param width width of replayed frames
+	 * @param height height of replayed frames
+	 * @param loop {@code true} to replay from the start once all frames were read
+	 * @param motionScript scripted motion, as "quiet,moving" frame counts (e.g. "100,20"), empty for none
+	 * @throws IllegalArgumentException if motion script is invalid
+	 */
+	public ReplayFrameSource(File path, int width, int height, boolean loop, String motionScript) {
+		this.path = path;
+		this.width = Math.max(16, width);
+		this.height = Math.max(16, height);
+		this.loop = loop;
+		int[] script = parseMotionScript(motionScript);
+		quietFrames = script[0];
+		motionFrames = script[1];
+	}
+	
+	@Override
+	public String getName() {
+		return "replay:" + (path == null ? "generated" : path.getName());
+	}
+	
+	@Override
+	public Dimension getSize() {
+		return new Dimension(width, height);
+	}
+	
+	@Override
+	public synchronized void open() throws CameraException {
+		if (isOpen())
+			return;
+		output = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		graphics = output.createGraphics();
+		index = 0;
+		if (path == null)
+			images = Arrays.asList(SyntheticImages.scene(width, height));
+		else if (path.isDirectory())
+			images = readImages(path);
+		else
+			openVideo();
+		logger.info("Replaying {} at {}x{}", getName(), width, height);
+	}
+	
+	@Override
+	public synchronized boolean isOpen() {
+		return output != null;
+	}
+	
+	@Override
+	public synchronized BufferedImage read() throws CameraException {
+		if (! isOpen())
+			throw new CameraException("Replay source " + getName() + " isn't open");
+		if (images != null) {
+			if (! loop && index >= images.size())
+				return null;
+			copyPixels(images.get((int) (index % images.size())), output);
+		}
+		else {
+			BufferedImage image = decodeNextFrame();
+			if (image == null)
+				return null;
+			graphics.drawImage(image, 0, 0, width, height, null);
+		}
+		drawMotion(index++);
+		return output;
+	}
+	
+	@Override
+	public synchronized void close() {
+		if (reader != null)
+			reader.close();
+		if (graphics != null)
+			graphics.dispose();
+		reader = null;
+		graphics = null;
+		images = null;
+		output = null;
+	}
+	
+	
+	/**
+	 * Draws the scripted moving object, if frame is within a motion part of the script.
+	 * @param frameIndex index of replayed frame
+	 */
+	private void drawMotion(long frameIndex) {
+		if (motionFrames == 0)
+			return;
+		long position = frameIndex % (quietFrames + motionFrames) - quietFrames;
+		if (position < 0)
+			return;
+		int objectWidth = width / 8;
+		int x = (int) (position * (width - objectWidth) / Math.max(1, motionFrames - 1));
+		graphics.setColor(Color.DARK_GRAY);
+		graphics.fillRect(x, height / 4, objectWidth, height / 2);
+	}
+	
+	/**
+	 * Decodes the next video frame, restarting the video at its end if looping.
+	 * @return A {@link BufferedImage} holding the decoded frame, {@code null} if video ended
+	 * @throws CameraException if unable to read video
+	 */
+	private BufferedImage decodeNextFrame() throws CameraException {
+		decoded = null;
+		boolean restarted = false;
+		while (decoded == null) {
+			if (reader.readPacket() != null) {
+				//end of video (or a read error)
+				if (! loop || restarted)
+					return null;
+				reader.close();
+				openVideo();
+				restarted = true;
+			}
+		}
+		return decoded;
+	}
+	
+	/**
+	 * Opens video file for decoding. Decoded frames are stored by the reader's listener.
+	 * @throws CameraException if unable to open video
+	 */
+	private void openVideo() throws CameraException {
+		if (! path.isFile())
+			throw new CameraException("Replay file not found: " + path);
+		try {
+			reader = ToolFactory.makeReader(path.getPath());
+		} catch (RuntimeException exc) {
+			throw new CameraException("Unable to open replay video " + path, exc);
+		}
+		reader.setBufferedImageTypeToGenerate(BufferedImage.TYPE_3BYTE_BGR);
+		reader.addListener(new MediaListenerAdapter() {
+			@Override
+			public void onVideoPicture(IVideoPictureEvent event) {
+				decoded = event.getImage();
+			}
+		});
+	}
+	
+	/**
+	 * Reads all images in directory (in file name order), scaled to replay size.
+	 * @param directory directory of images
+	 * @return A List of {@link BufferedImage} objects
+	 * @throws CameraException if directory holds no readable images
+	 */
+	private List<BufferedImage> readImages(File directory) throws CameraException {
+		File[] files = directory.listFiles(File::isFile);
+		List<BufferedImage> images = new ArrayList<>();
+		if (files != null) {
+			Arrays.sort(files);
+			for (File file : files) {
+				try {
+					BufferedImage image = ImageIO.read(file);
+					if (image != null)
+						images.add(scale(image));
+				} catch (IOException exc) {
+					logger.warn("Unable to read replay image {}: {}", file, exc.getMessage());
+				}
+			}
+		}
+		if (images.isEmpty())
+			throw new CameraException("No images found in " + directory);
+		return images;
+	}
+	
+	/**
+	 * Scales image to replay size.
+	 * @param image image to scale
+	 * @return A {@link BufferedImage} of type {@link BufferedImage#TYPE_3BYTE_BGR} in replay size
+	 */
+	private BufferedImage scale(BufferedImage image) {
+		BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D scaledGraphics = scaled.createGraphics();
+		scaledGraphics.drawImage(image, 0, 0, width, height, null);
+		scaledGraphics.dispose();
+		return scaled;
+	}
+	
+	/**
+	 * Copies pixels between two images of the same size and type.
+	 * @param from image to copy from
+	 * @param to image to copy to
+	 */
+	private static void copyPixels(BufferedImage from, BufferedImage to) {
+		byte[] source = ((DataBufferByte) from.getRaster().getDataBuffer()).getData();
+		byte[] target = ((DataBufferByte) to.getRaster().getDataBuffer()).getData();
+		System.arraycopy(source, 0, target, 0, source.length);
+	}
+	
+	/**
+	 * Parses motion script.
+	 * @param motionScript "quiet,moving" frame counts, empty for none
+	 * @return An int array of quiet and moving frame counts
+	 * @throws IllegalArgumentException if motion script is invalid
+	 */
+	private static int[] parseMotionScript(String motionScript) {
+		if (motionScript == null || motionScript.trim().isEmpty())
+			return new int[] {0, 0};
+		String[] parts = motionScript.split(",");
+		try {
+			int quiet = Integer.parseInt(parts[0].trim());
+			int moving = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : -1;
+			if (parts.length != 2 || quiet < 0 || moving < 1)
+				throw new IllegalArgumentException("Invalid motion script '" + motionScript + "', expected quiet,moving");
+			return new int[] {quiet, moving};
+		} catch (NumberFormatException exc) {
+			throw new IllegalArgumentException("Invalid motion script '" + motionScript + "', expected quiet,moving", exc);
+		}
+	}
+	
+	private static File toFile(String path) {
+		return path.trim().isEmpty() ? null : new File(path.trim());
+	}
+	
+}
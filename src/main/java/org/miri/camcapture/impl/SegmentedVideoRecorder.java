@@ -0,0 +1,317 @@
+package org.miri.camcapture.impl;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.miri.camcapture.api.CaptureProfile;
+import org.miri.camcapture.api.Frame;
+import org.miri.camcapture.api.IFrameBuffer;
+import org.miri.camcapture.api.SettingKeys;
+import org.miri.camcapture.api.VideoOptions;
+import org.miri.camcapture.exceptions.CameraException;
+import org.miri.camcapture.util.DaemonThreadFactory;
+import org.miri.camcapture.util.Histogram;
+import org.miri.camcapture.util.Metrics;
+import org.miri.camcapture.util.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records long videos as fixed-length segments encoded in parallel, then joins them into a single video. <br>
+ * Frames are captured at a fixed rate, as by {@link VideoRecorder}, and each goes to the segment of its time.
+ *  Every segment starts with a key frame and is converted and encoded into its own temporary file on a pool of
+ *  workers, so when encoding is slower than capture the backlog is encoded on all workers at once, instead of
+ *  frame after frame. Once all segments are encoded, their packets are copied into the video file without
+ *  re-encoding. <br>
+ * Frames waiting to be encoded are bounded; if all are waiting, frames are dropped at capture.
+ * @author Miri Yehezkel
+ * @see VideoEncoder#concatenate(List, long, File)
+ */
+enum SegmentedVideoRecorder {
+	INSTANCE;
+	private final Logger logger = LoggerFactory.getLogger(SegmentedVideoRecorder.class);
+	private final int workers = Math.max(1, Settings.getInt(SettingKeys.VIDEO_ENCODE_WORKERS, 1));
+	private final int segmentDuration = Math.max(1, Settings.getInt(SettingKeys.VIDEO_SEGMENT_DURATION, 10));
+	private final int bufferFrames = Math.max(2, Settings.getInt(SettingKeys.VIDEO_ENCODE_BUFFER, 24));
+	//max time (in ms) to wait for workers to be done with a recording's files and frames
+	private final long cleanupTimeout = 10000;
+	private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1,
+			new DaemonThreadFactory("video-segment-capture"));
+	private final ExecutorService encoders = Executors.newFixedThreadPool(workers,
+			new DaemonThreadFactory("video-segment-encoder"));
+	private final Histogram joinTime = Metrics.INSTANCE.histogram("camcapture_video_join_seconds",
+			"Time taken to join encoded video segments");
+	private final Histogram drainTime = Metrics.INSTANCE.histogram("camcapture_video_drain_seconds",
+			"Time from end of capture until all video segments are encoded");
+	
+	
+	/**
+	 * Returns whether video should be recorded in segments - if more than one worker encodes,
+	 *  and the video is longer than a segment.
+	 * @param options video options
+	 * @return {@code true} to record with this recorder, {@code false} to record with {@link VideoRecorder}
+	 */
+	boolean isSegmented(VideoOptions options) {
+		return workers > 1 && options.getDuration() > segmentDuration;
+	}
+	
+	/**
+	 * Records video from frame buffer into file. Returns when the video is written.
+	 * @param frameBuffer buffer to read frames from
+	 * @param file video file
+	 * @param width frame width
+	 * @param height frame height
+	 * @param options video options
+	 * @throws CameraException if unable to read frames or encode video
+	 * @throws IllegalArgumentException if unable to write video file
+	 */
+	void record(IFrameBuffer frameBuffer, File file, int width, int height, VideoOptions options)
+			throws CameraException {
+		int frames = options.getFrames();
+		int segmentFrames = segmentDuration * options.getFps();
+		long frameInterval = 1000000L / options.getFps();
+		BlockingQueue<SegmentFrame> free = new ArrayBlockingQueue<>(bufferFrames);
+		List<SegmentFrame> items = new ArrayList<>();
+		for (int i = 0; i < bufferFrames; i++)
+			items.add(new SegmentFrame(FramePool.INSTANCE.acquire(width, height)));
+		free.addAll(items);
+		List<Segment> segments = new ArrayList<>();
+		AtomicReference<Exception> failure = new AtomicReference<>();
+		AtomicInteger dropped = new AtomicInteger();
+		try {
+			//capture stage, ends after the last frame or once a segment failed
+			AtomicInteger ticks = new AtomicInteger();
+			CountDownLatch captured = new CountDownLatch(1);
+			ScheduledFuture<?> capture = scheduler.scheduleAtFixedRate(() -> {
+				int index = ticks.getAndIncrement();
+				if (index > frames)
+					return;
+				Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+				if (index == frames || failure.get() != null || index % segmentFrames == 0) {
+					if (segment != null)
+						segment.frames.add(SegmentFrame.END);
+					if (index == frames || failure.get() != null) {
+						ticks.set(frames + 1);
+						captured.countDown();
+						return;
+					}
+					try {
+						segment = new Segment(index, File.createTempFile("segment", ".mp4"));
+					} catch (IOException exc) {
+						failure.compareAndSet(null, exc);
+						ticks.set(frames + 1);
+						captured.countDown();
+						return;
+					}
+					Segment encoded = segment;
+					encoded.done = encoders.submit(() -> encode(encoded, free, failure, width, height, options, 
+							frameInterval));
+					synchronized (segments) {
+						segments.add(segment);
+					}
+				}
+				SegmentFrame item = free.poll();
+				if (item == null) {
+					dropped.incrementAndGet();
+					return;
+				}
+				try {
+					item.frame = frameBuffer.getNextFrame(-1, item.frame, frameInterval / 1000, CaptureProfile.VIDEO);
+					item.index = index;
+					segment.frames.add(item);
+					//segment's encoder may have failed after it returned its frames
+					if (segment.failed)
+						segment.returnFrames(free);
+				} catch (CameraException exc) {
+					failure.compareAndSet(null, exc);
+					free.add(item);
+				}
+			}, 0, frameInterval, TimeUnit.MICROSECONDS);
+	
+			try {
+				captured.await();
+			} finally {
+				capture.cancel(false);
+			}
+			long captureEnd = System.nanoTime();
+	
+			List<File> files = new ArrayList<>();
+			synchronized (segments) {
+				for (Segment segment : segments) {
+					try {
+						segment.done.get();
+					} catch (ExecutionException exc) {
+						Throwable cause = exc.getCause();
+						failure.compareAndSet(null, cause instanceof Exception ? (Exception) cause : exc);
+					}
+					files.add(segment.file);
+				}
+			}
+			drainTime.recordSince(captureEnd);
+			if (failure.get() != null)
+				throw new CameraException("Unable to record video: " + failure.get().getMessage(), failure.get());
+			long start = System.nanoTime();
+			VideoEncoder.concatenate(files, segmentFrames * frameInterval, file);
+			joinTime.recordSince(start);
+			logger.trace("Recorded video ({}) in {} segments, dropped {} frames", options, files.size(), dropped.get());
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			throw new CameraException("Interrupted while recording video", exc);
+		} finally {
+			cleanUp(segments, items);
+		}
+	}
+	
+	/**
+	 * Ends segments still encoding (if recording was interrupted), and waits - up to a bound, even if interrupted - 
+	 *  for capture and workers to be done with the recording. Then deletes segment files and returns frames to 
+	 *  the pool. Files of segments still encoding are deleted on exit instead, and frames are then left unpooled.
+	 * @param segments segments of recording
+	 * @param items frames of recording
+	 */
+	private void cleanUp(List<Segment> segments, List<SegmentFrame> items) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(cleanupTimeout);
+		//the capture thread runs ticks one at a time, so a tick still running ends before this task
+		boolean done = awaitDone(scheduler.submit(() -> {}), deadline);
+		synchronized (segments) {
+			for (Segment segment : segments)
+				segment.frames.add(SegmentFrame.END);
+			for (Segment segment : segments) {
+				boolean encoded = awaitDone(segment.done, deadline);
+				done &= encoded;
+				if (! encoded || ! segment.file.delete())
+					segment.file.deleteOnExit();
+			}
+		}
+		if (! done) {
+			logger.warn("Video segments still encoding after {} ms, their frames aren't reused", cleanupTimeout);
+			return;
+		}
+		for (SegmentFrame item : items)
+			FramePool.INSTANCE.release(item.frame);
+	}
+	
+	/**
+	 * Waits until task is done or deadline passes. Keeps waiting if interrupted, keeping the interrupt.
+	 * @param task task to wait for
+	 * @param deadline time (as of {@link System#nanoTime()}) to stop waiting at
+	 * @return {@code true} if task is done, {@code false} otherwise
+	 */
+	private boolean awaitDone(Future<?> task, long deadline) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					task.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+					return true;
+				} catch (InterruptedException exc) {
+					interrupted = true;
+				} catch (ExecutionException | CancellationException exc) {
+					return true;
+				} catch (TimeoutException exc) {
+					return false;
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+	
+	
+	/**
+	 * Encodes frames of a segment into its file, returning each frame for reuse once converted. Runs on a worker. <br>
+	 * On failure, the failure is set so capture stops, and frames queued for the segment are returned.
+	 * @param segment segment to encode
+	 * @param free queue of frames to return frames to
+	 * @param failure first failure of the recording
+	 * @param width frame width
+	 * @param height frame height
+	 * @param options video options
+	 * @param frameInterval time (in microseconds) between frames
+	 * @return {@code null}
+	 * @throws Exception if unable to encode segment
+	 */
+	private Void encode(Segment segment, BlockingQueue<SegmentFrame> free, AtomicReference<Exception> failure, 
+			int width, int height, VideoOptions options, long frameInterval) throws Exception {
+		try (VideoEncoder encoder = new VideoEncoder(segment.file, width, height, options)) {
+			SegmentFrame item;
+			while ((item = segment.frames.take()) != SegmentFrame.END) {
+				try {
+					BufferedImage image = item.frame.getImage();
+					encoder.encode(encoder.toPicture(image, (item.index - segment.first) * frameInterval));
+				} finally {
+					free.add(item);
+				}
+			}
+		} catch (Exception exc) {
+			failure.compareAndSet(null, exc);
+			segment.failed = true;
+			segment.returnFrames(free);
+			throw exc;
+		}
+		return null;
+	}
+	
+	
+	/**
+	 * A segment of a video being recorded.
+	 */
+	private static class Segment {
+		//index of the segment's first frame in the video
+		final int first;
+		final File file;
+		final BlockingQueue<SegmentFrame> frames = new LinkedBlockingQueue<>();
+		volatile Future<?> done;
+		//set once the segment's encoder failed, frames queued after are returned by capture
+		volatile boolean failed;
+	
+		Segment(int first, File file) {
+			this.first = first;
+			this.file = file;
+		}
+	
+		/**
+		 * Returns frames queued for the segment to free queue.
+		 * @param free queue of frames to return frames to
+		 */
+		void returnFrames(BlockingQueue<SegmentFrame> free) {
+			SegmentFrame item;
+			while ((item = frames.poll()) != null)
+				if (item != SegmentFrame.END)
+					free.add(item);
+		}
+	}
+	
+	/**
+	 * A frame passed from capture to a segment's encoder.
+	 */
+	private static class SegmentFrame {
+		static final SegmentFrame END = new SegmentFrame(null);
+		Frame frame;
+		int index;
+	
+		SegmentFrame(Frame frame) {
+			this.frame = frame;
+		}
+	}
+	
+}
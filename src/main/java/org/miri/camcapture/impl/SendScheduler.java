@@ -0,0 +1,212 @@
+package org.miri.camcapture.impl;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.miri.camcapture.api.SettingKeys;
+import org.miri.camcapture.util.Histogram;
+import org.miri.camcapture.util.Metrics;
+import org.miri.camcapture.util.Settings;
+
+/**
+ * Paces requests sent to Telegram, so bursts are spread out instead of being throttled (HTTP 429). <br>
+ * Each request takes a token from its chat's bucket and from a global bucket, waiting until both have one.
+ *  Buckets refill at a steady rate and hold a few tokens, so short bursts are sent at once.
+ *  Waiting requests are served by lane - text messages before media - and in arrival order within a lane.
+ *  A chat Telegram throttled anyway is paused for the time Telegram asked to wait (<i>retry_after</i>). <br>
+ * Requests wait on the sending thread, so senders are slowed down rather than queuing requests in memory.
+ * @author Miri Yehezkel
+ * @see Telegram
+ */
+enum SendScheduler {
+	INSTANCE;
+	private final double chatRate = Settings.getDouble(SettingKeys.SEND_CHAT_RATE, 1);
+	private final int chatBurst = Math.max(1, Settings.getInt(SettingKeys.SEND_CHAT_BURST, 3));
+	private final double globalRate = Settings.getDouble(SettingKeys.SEND_GLOBAL_RATE, 30);
+	private final Histogram waitTime = Metrics.INSTANCE.histogram("camcapture_send_wait_seconds",
+			"Time requests wait for their turn to be sent");
+	//guarded by this
+	private final Bucket global = new Bucket(globalRate, Math.max(1, (int) globalRate));
+	private final Map<String, Bucket> chats = new HashMap<>();
+	private final List<Waiter> waiters = new ArrayList<>();
+	private long arrivals;
+	
+	
+	private SendScheduler() {
+		Metrics.INSTANCE.gauge("camcapture_send_waiting", "Requests waiting for their turn to be sent", this::getWaiting);
+	}
+	
+	
+	/**
+	 * Waits until a request may be sent to chat.
+	 * @param chatId Id of chat request is sent to
+	 * @param lane request's lane
+	 * @throws InterruptedIOException if interrupted while waiting
+	 */
+	synchronized void acquire(String chatId, Lane lane) throws InterruptedIOException {
+		long start = System.nanoTime();
+		Waiter waiter = new Waiter(getBucket(chatId), lane, arrivals++);
+		waiters.add(waiter);
+		try {
+			while (true) {
+				long now = System.nanoTime();
+				global.refill(now);
+				Waiter next = getNext(now);
+				if (next == waiter && global.tokens >= 1) {
+					global.tokens--;
+					waiter.bucket.tokens--;
+					waiters.remove(waiter);
+					//the next waiter may be able to go as well
+					notifyAll();
+					break;
+				}
+				long wait = Math.max(global.getWait(now), waiter.bucket.getWait(now));
+				wait(Math.max(1, wait / 1000000));
+			}
+		} catch (InterruptedException exc) {
+			waiters.remove(waiter);
+			notifyAll();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to send to chat " + chatId);
+		} finally {
+			waitTime.recordSince(start);
+		}
+	}
+	
+	/**
+	 * Pauses sending to chat, after Telegram throttled it.
+	 * @param chatId Id of throttled chat
+	 * @param millis time (in ms) Telegram asked to wait
+	 */
+	synchronized void pause(String chatId, long millis) {
+		Bucket bucket = getBucket(chatId);
+		bucket.pausedUntil = Math.max(bucket.pausedUntil, System.nanoTime() + millis * 1000000);
+		//nothing is left to send right after the pause
+		bucket.tokens = Math.min(bucket.tokens, 0);
+	}
+	
+	/**
+	 * @return Number of requests waiting for their turn
+	 */
+	synchronized long getWaiting() {
+		return waiters.size();
+	}
+	
+	
+	/**
+	 * Finds the first waiter (by lane and arrival) whose chat can send now. Called while holding the scheduler.
+	 * @param now current time (in ns)
+	 * @return A {@link Waiter}, {@code null} if no chat can send now
+	 */
+	private Waiter getNext(long now) {
+		Waiter next = null;
+		for (Waiter waiter : waiters) {
+			waiter.bucket.refill(now);
+			if (waiter.bucket.getWait(now) == 0 && (next == null || waiter.compareTo(next) < 0))
+				next = waiter;
+		}
+		return next;
+	}
+	
+	/**
+	 * Returns bucket of chat, creating it if needed. Full buckets of idle chats are dropped once there are many,
+	 *  since a new bucket is full as well. Called while holding the scheduler.
+	 * @param chatId Id of chat
+	 * @return A {@link Bucket} object
+	 */
+	private Bucket getBucket(String chatId) {
+		Bucket bucket = chats.get(chatId);
+		if (bucket == null) {
+			if (chats.size() >= 10000) {
+				long now = System.nanoTime();
+				for (Iterator<Bucket> it = chats.values().iterator(); it.hasNext(); ) {
+					Bucket idle = it.next();
+					idle.refill(now);
+					if (idle.tokens >= idle.capacity && idle.pausedUntil <= now)
+						it.remove();
+				}
+			}
+			bucket = new Bucket(chatRate, chatBurst);
+			chats.put(chatId, bucket);
+		}
+		return bucket;
+	}
+	
+	
+	/**
+	 * Lanes of requests, by priority.
+	 */
+	enum Lane {
+		/** Text messages, sent first */
+		TEXT,
+		/** Photos, albums and videos */
+		MEDIA
+	}
+	
+	/**
+	 * A token bucket. Accessed while holding the scheduler.
+	 */
+	private static class Bucket {
+		private final double rate;
+		private final int capacity;
+		private double tokens;
+		private long refilled = System.nanoTime();
+		private long pausedUntil;
+	
+		/**
+		 * @param rate tokens added per second ({@code 0} or less for no limit)
+		 * @param capacity max tokens held
+		 */
+		Bucket(double rate, int capacity) {
+			this.rate = rate;
+			this.capacity = capacity;
+			tokens = capacity;
+		}
+	
+		void refill(long now) {
+			if (rate <= 0)
+				tokens = capacity;
+			else
+				tokens = Math.min(capacity, tokens + (now - refilled) * rate / 1e9);
+			refilled = now;
+		}
+	
+		/**
+		 * @param now current time (in ns)
+		 * @return Time (in ns) until bucket has a token and isn't paused, {@code 0} if it has one now
+		 */
+		long getWait(long now) {
+			long paused = Math.max(0, pausedUntil - now);
+			long refill = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) * 1e9 / rate);
+			return Math.max(paused, refill);
+		}
+	
+	}
+	
+	/**
+	 * A request waiting for its turn.
+	 */
+	private static class Waiter implements Comparable<Waiter> {
+		private final Bucket bucket;
+		private final Lane lane;
+		private final long arrival;
+	
+		Waiter(Bucket bucket, Lane lane, long arrival) {
+			this.bucket = bucket;
+			this.lane = lane;
+			this.arrival = arrival;
+		}
+	
+		@Override
+		public int compareTo(Waiter other) {
+			int compared = lane.compareTo(other.lane);
+			return compared != 0 ? compared : Long.compare(arrival, other.arrival);
+		}
+	
+	}
+	
+}
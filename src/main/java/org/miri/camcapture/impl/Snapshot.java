@@ -0,0 +1,107 @@
+package org.miri.camcapture.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.miri.camcapture.api.Capture;
+import org.miri.camcapture.exceptions.CameraException;
+import org.miri.camcapture.exceptions.FileAccessException;
+
+/**
+ * Represents a single captured image shared by all chats that requested an image at the same time. <br>
+ * The first chat to send the image uploads it; the rest reuse the file id Telegram assigned to it.
+ * @author Miri Yehezkel
+ * @see SnapshotCoalescer
+ */
+class Snapshot {
+	private final long requestTime;
+	private final CompletableFuture<Capture> image = new CompletableFuture<>();
+	private final CompletableFuture<String> fileId = new CompletableFuture<>();
+	private final AtomicBoolean uploadClaimed = new AtomicBoolean();
+	
+	/**
+	 * @param requestTime time (in ms) the capture was requested
+	 */
+	Snapshot(long requestTime) {
+		this.requestTime = requestTime;
+	}
+	
+	long getRequestTime() {
+		return requestTime;
+	}
+	
+	/**
+	 * Checks if a request made at given time can share this snapshot.
+	 * @param time time (in ms) of request
+	 * @param window time (in ms) requests are coalesced for
+	 * @return {@code true} if request can share this snapshot, {@code false} otherwise
+	 */
+	boolean isJoinable(long time, long window) {
+		return time - requestTime < window && ! image.isCompletedExceptionally();
+	}
+	
+	void setImage(Capture capture) {
+		image.complete(capture);
+	}
+	
+	void setImageFailed(Exception exc) {
+		image.completeExceptionally(exc);
+	}
+	
+	/**
+	 * Waits for image to be captured.
+	 * @return A {@link Capture} holding the captured image
+	 * @throws CameraException if unable to complete capture
+	 * @throws FileAccessException if unable to encode image
+	 */
+	Capture getImage() throws CameraException, FileAccessException {
+		try {
+			return image.get();
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			throw new CameraException("Interrupted while waiting for capture", exc);
+		} catch (ExecutionException exc) {
+			if (exc.getCause() instanceof CameraException)
+				throw (CameraException) exc.getCause();
+			if (exc.getCause() instanceof FileAccessException)
+				throw (FileAccessException) exc.getCause();
+			throw new CameraException("Unable to complete capture", exc.getCause());
+		}
+	}
+	
+	/**
+	 * Claims the upload of this snapshot. Only the first caller succeeds.
+	 * @return {@code true} if caller should upload the image, {@code false} if it is already uploaded
+	 */
+	boolean claimUpload() {
+		return uploadClaimed.compareAndSet(false, true);
+	}
+	
+	/**
+	 * Sets the file id of the uploaded image.
+	 * @param id file id, {@code null} if upload failed
+	 */
+	void setFileId(String id) {
+		fileId.complete(id);
+	}
+	
+	/**
+	 * Waits for the uploading chat to publish the image's file id.
+	 * @param timeout max time (in ms) to wait
+	 * @return A String representing the file id, {@code null} if upload failed or timed out
+	 */
+	String getFileId(long timeout) {
+		try {
+			return fileId.get(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException | TimeoutException exc) {
+			return null;
+		}
+	}
+	
+}
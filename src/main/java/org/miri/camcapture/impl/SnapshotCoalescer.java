@@ -0,0 +1,60 @@
+package org.miri.camcapture.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.miri.camcapture.api.ICamera;
+import org.miri.camcapture.api.SettingKeys;
+import org.miri.camcapture.exceptions.CameraException;
+import org.miri.camcapture.exceptions.FileAccessException;
+import org.miri.camcapture.util.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces image requests. <br>
+ * All chats requesting an image from a camera within a short window of the first request share a single capture.
+ * @author Miri Yehezkel
+ * @see Snapshot
+ */
+public enum SnapshotCoalescer {
+	INSTANCE;
+	private final Logger logger = LoggerFactory.getLogger(SnapshotCoalescer.class);
+	private final long window = Settings.getLong(SettingKeys.SNAPSHOT_COALESCE_WINDOW, 500);
+	//current snapshot per camera number
+	private final Map<Integer, Snapshot> current = new HashMap<>();
+	
+	
+	/**
+	 * Captures an image, or joins a capture requested by another chat within the coalescing window.
+	 * @param chatId Id of telegram chat
+	 * @param camera camera to capture from
+	 * @return A {@link Snapshot} holding the captured image
+	 * @throws CameraException if unable to complete capture
+	 * @throws FileAccessException if unable to encode image
+	 */
+	Snapshot capture(String chatId, ICamera camera) throws CameraException, FileAccessException {
+		Snapshot snapshot;
+		boolean capturing = false;
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			snapshot = current.get(camera.getId());
+			if (snapshot == null || ! snapshot.isJoinable(now, window)) {
+				snapshot = new Snapshot(now);
+				current.put(camera.getId(), snapshot);
+				capturing = true;
+			}
+		}
+		if (capturing) {
+			try {
+				snapshot.setImage(camera.captureImage(chatId));
+			} catch (CameraException | FileAccessException | RuntimeException exc) {
+				snapshot.setImageFailed(exc);
+			}
+		} else {
+			logger.trace("Chat {} joined snapshot requested {} ms ago", chatId, now - snapshot.getRequestTime());
+		}
+		return snapshot;
+	}
+	
+}
@@ -0,0 +1,136 @@
+package org.miri.camcapture.impl;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.miri.camcapture.api.ImageFormat;
+import org.miri.camcapture.api.SettingKeys;
+import org.miri.camcapture.util.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Encodes captured images in the configured format (JPEG by default). <br>
+ * Each thread reuses its own {@link ImageWriter} and output buffer, 
+ *  instead of looking up a writer and growing a new buffer per image.
+ * @author Miri Yehezkel
+ *
+ */
+public enum SnapshotEncoder {
+	INSTANCE;
+	private final Logger logger = LoggerFactory.getLogger(SnapshotEncoder.class);
+	private final ImageFormat format = readFormat();
+	private final float quality = Math.max(1, Math.min(100, Settings.getInt(SettingKeys.SNAPSHOT_JPEG_QUALITY, 85))) / 100f;
+	private final ThreadLocal<ImageWriter> writers = ThreadLocal.withInitial(this::createWriter);
+	private final ThreadLocal<ByteArrayOutputStream> buffers = ThreadLocal.withInitial(() -> new ByteArrayOutputStream(1 << 20));
+	
+	
+	/**
+	 * Returns the format images are encoded in.
+	 * @return An {@link ImageFormat} object
+	 */
+	public ImageFormat getFormat() {
+		return format;
+	}
+	
+	/**
+	 * Encodes image and writes it to given stream.
+	 * @param image image to encode
+	 * @param out stream to write to
+	 * @return An int representing the number of bytes written
+	 * @throws IOException if unable to encode or write image
+	 */
+	public int encode(BufferedImage image, OutputStream out) throws IOException {
+		ByteArrayOutputStream buffer = encodeToBuffer(image);
+		buffer.writeTo(out);
+		return buffer.size();
+	}
+	
+	/**
+	 * Encodes image.
+	 * @param image image to encode
+	 * @return A byte array holding the encoded image
+	 * @throws IOException if unable to encode image
+	 */
+	public byte[] encode(BufferedImage image) throws IOException {
+		return encodeToBuffer(image).toByteArray();
+	}
+	
+	
+	/**
+	 * Encodes image into the thread's reusable buffer.
+	 * @param image image to encode
+	 * @return A {@link ByteArrayOutputStream} holding the encoded image, valid until the thread's next encoding
+	 * @throws IOException if unable to encode image
+	 */
+	private ByteArrayOutputStream encodeToBuffer(BufferedImage image) throws IOException {
+		ImageWriter writer = writers.get();
+		ByteArrayOutputStream buffer = buffers.get();
+		buffer.reset();
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		if (format == ImageFormat.JPEG) {
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(quality);
+			//JPEG doesn't support transparency
+			if (image.getColorModel().hasAlpha())
+				image = removeAlpha(image);
+		}
+		try (ImageOutputStream output = new MemoryCacheImageOutputStream(buffer)) {
+			writer.setOutput(output);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.reset();
+		}
+		return buffer;
+	}
+	
+	/**
+	 * Creates an {@link ImageWriter} for the configured format.
+	 * @return An {@link ImageWriter} object
+	 */
+	private ImageWriter createWriter() {
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByMIMEType(format.getMimeType());
+		if (! writers.hasNext())
+			throw new IllegalStateException("No image writer found for " + format);
+		return writers.next();
+	}
+	
+	/**
+	 * Draws image on an opaque image.
+	 * @param image image with alpha channel
+	 * @return A {@link BufferedImage} without alpha channel
+	 */
+	private BufferedImage removeAlpha(BufferedImage image) {
+		BufferedImage opaque = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D graphics = opaque.createGraphics();
+		graphics.drawImage(image, 0, 0, null);
+		graphics.dispose();
+		return opaque;
+	}
+	
+	/**
+	 * Reads image format from user settings.
+	 * @return An {@link ImageFormat} object, JPEG if setting is invalid
+	 */
+	private ImageFormat readFormat() {
+		String name = Settings.getString(SettingKeys.SNAPSHOT_FORMAT, ImageFormat.JPEG.name());
+		try {
+			return ImageFormat.valueOf(name.toUpperCase());
+		} catch (IllegalArgumentException exc) {
+			logger.warn("Unknown image format '{}', using {}", name, ImageFormat.JPEG);
+			return ImageFormat.JPEG;
+		}
+	}
+	
+}
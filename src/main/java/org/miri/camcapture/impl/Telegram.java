@@ -2,27 +2,55 @@ package org.miri.camcapture.impl;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import javax.json.Json;
-import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
 import javax.json.JsonObject;
 
-import org.apache.http.HttpResponse;
+import org.apache.http.HttpEntity;
 import org.apache.http.StatusLine;
-import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
 import org.miri.camcapture.api.BotCommands;
+import org.miri.camcapture.api.Capture;
 import org.miri.camcapture.api.ICamera;
 import org.miri.camcapture.api.ICameraBot;
 import org.miri.camcapture.api.ITelegram;
+import org.miri.camcapture.api.SettingKeys;
 import org.miri.camcapture.api.TelegramConstants;
+import org.miri.camcapture.api.VideoOptions;
 import org.miri.camcapture.exceptions.BotTokenAccessException;
 import org.miri.camcapture.exceptions.CameraException;
 import org.miri.camcapture.exceptions.FileAccessException;
 import org.miri.camcapture.exceptions.TelegramException;
+import org.miri.camcapture.util.Counter;
+import org.miri.camcapture.util.DaemonThreadFactory;
+import org.miri.camcapture.util.Histogram;
+import org.miri.camcapture.util.Metrics;
+import org.miri.camcapture.util.Settings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,29 +64,113 @@ public enum Telegram implements ITelegram {
 	private final Logger logger = LoggerFactory.getLogger(Telegram.class);
 	private String botURL;
 	private ICameraBot bot = CameraBot.INSTANCE;
-	private ICamera camera = DefaultCamera.INSTANCE;;
-	private int lastOffset = 0;
+	private final UpdateParser updateParser = new UpdateParser();
+	//parses updates posted to the webhook (guarded by itself)
+	private final UpdateParser webhookParser = new UpdateParser();
+	//offset and recently received updates, kept across restarts
+	private final UpdateCheckpoint checkpoint = UpdateCheckpoint.INSTANCE;
+	//max updates fetched per poll
+	private final int updatesLimit = 100;
+	//long polling timeout (in seconds) - Telegram holds getUpdates until an update arrives or timeout passes
+	private final int pollTimeout = Settings.getInt(SettingKeys.POLL_TIMEOUT, 30);
+	private final CloseableHttpClient client = createHttpClient();
+	//max time (in ms) to wait for another chat to upload a shared image before uploading it again
+	private final long uploadWaitTimeout = Settings.getLong(SettingKeys.SNAPSHOT_UPLOAD_WAIT, 30000);
+	private final int maxVideoDuration = Settings.getInt(SettingKeys.VIDEO_MAX_DURATION, 60);
+	private final int maxVideoFps = Settings.getInt(SettingKeys.VIDEO_MAX_FPS, 30);
+	private final int maxTimelapseDuration = Settings.getInt(SettingKeys.TIMELAPSE_MAX_DURATION, 1440);
+	//Bot API base URL, followed by the bot token (can point to a local Bot API server)
+	private final String baseURL = Settings.getString(SettingKeys.BASE_URL, TelegramConstants.BASE_URL);
+	private final Histogram pollTime = Metrics.INSTANCE.histogram("camcapture_poll_seconds", 
+			"Time getUpdates requests take, including long polling wait");
+	private final Histogram commandQueueTime = Metrics.INSTANCE.histogram("camcapture_command_queue_seconds", 
+			"Time commands wait for a worker");
+	private final Histogram commandTime = Metrics.INSTANCE.histogram("camcapture_command_seconds", 
+			"Time commands take to execute");
+	private final Histogram requestTime = Metrics.INSTANCE.histogram("camcapture_request_seconds", 
+			"Time requests sent to Telegram (messages and uploads) take");
+	private final Counter commands = Metrics.INSTANCE.counter("camcapture_commands_total", "Commands received");
+	private final Counter commandFailures = Metrics.INSTANCE.counter("camcapture_command_failures_total", 
+			"Commands that failed");
+	private final Counter uploadedBytes = Metrics.INSTANCE.counter("camcapture_uploaded_bytes_total", 
+			"Bytes sent to Telegram");
+	private final Counter requestFailures = Metrics.INSTANCE.counter("camcapture_request_failures_total", 
+			"Requests to Telegram that failed or were rejected");
+	private final Counter requestRetries = Metrics.INSTANCE.counter("camcapture_request_retries_total", 
+			"Requests to Telegram sent again after being throttled or failing");
+	//HTTP status of throttled requests
+	private static final int tooManyRequests = 429;
+	//paces requests to Telegram's rate limits
+	private final SendScheduler scheduler = SendScheduler.INSTANCE;
+	private final int maxRetries = Math.max(0, Settings.getInt(SettingKeys.SEND_RETRIES, 3));
+	private final long retryBackoff = Settings.getLong(SettingKeys.SEND_RETRY_BACKOFF, 500);
+	//time (in ms) a status message waits for the media it announces, 0 or less to send it right away
+	private final long statusDelay = Settings.getLong(SettingKeys.SEND_STATUS_DELAY, 1000);
+	private final ScheduledExecutorService statusSender = new ScheduledThreadPoolExecutor(2, 
+			new DaemonThreadFactory("status-messages"));
+	//status messages waiting to be sent, by chat
+	private final Map<String, ScheduledFuture<?>> pendingStatus = new ConcurrentHashMap<>();
 	
 	
 	/**
 	 * Retrieves incoming updates from Telegram bot.<br>
-	 * Uses {@link HttpGet} to fetch updates from URL and executes incoming commands.
+	 * Uses {@link HttpGet} to long poll updates from URL and executes incoming commands. 
+	 * Updates are committed to the {@link UpdateCheckpoint} before their commands are dispatched, 
+	 *  so updates received again (e.g. after a restart) are skipped.
+	 * @see #handleUpdates(List, long)
 	 */
 	public void getUpdates() throws TelegramException, BotTokenAccessException, IOException {
-		String url = getBotURL() + TelegramConstants.GET_UPDATES_URL + "?offset=" + (lastOffset);
+		String url = getBotURL() + TelegramConstants.GET_UPDATES_URL + "?offset=" + checkpoint.getOffset()
+				+ "&timeout=" + pollTimeout + "&limit=" + updatesLimit;
 		//fetches updates from URL
-		HttpResponse response = fetchUpdates(url);
-		StatusLine statusLine = response.getStatusLine();
-		if (! isValidStatusCode(statusLine))
-			throw new TelegramException("Status line not valid (" + 
-				statusLine.getStatusCode() + ")", new Throwable(statusLine.getReasonPhrase()));
-		//reads JSON response
-		JsonArray results = Json.createReader(response.getEntity()
-				.getContent()).readObject()
-				.getJsonArray(TelegramConstants.RESULT_FIELD);
-		//executes incoming commands
-		if(results.size() > 0)
-			executeResponse(results);
+		long pollStart = System.nanoTime();
+		try (CloseableHttpResponse response = fetchUpdates(url)) {
+			pollTime.recordSince(pollStart);
+			StatusLine statusLine = response.getStatusLine();
+			if (! isValidStatusCode(statusLine)) {
+				EntityUtils.consume(response.getEntity());
+				throw new TelegramException("Status line not valid (" + 
+					statusLine.getStatusCode() + ")", new Throwable(statusLine.getReasonPhrase()));
+			}
+			//reads JSON response (closing the content releases the connection back to the pool)
+			List<Update> updates;
+			try (InputStream content = response.getEntity().getContent()) {
+				updates = updateParser.parse(content);
+			}
+			//executes incoming commands, confirming skipped updates too
+			handleUpdates(updates, updateParser.getLastUpdateId());
+		}
+	}
+	
+	/**
+	 * Registers a webhook with Telegram, for text messages only.
+	 */
+	public void setWebhook(String url, String secretToken) throws TelegramException, BotTokenAccessException, IOException {
+		MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+		builder.addTextBody(TelegramConstants.URL_FIELD, url);
+		builder.addTextBody(TelegramConstants.SECRET_TOKEN_FIELD, secretToken);
+		builder.addTextBody(TelegramConstants.ALLOWED_UPDATES_FIELD, "[\"" + TelegramConstants.MESSAGE_FIELD + "\"]", 
+				ContentType.APPLICATION_JSON);
+		executeWebhookRequest(TelegramConstants.SET_WEBHOOK_URL, builder);
+	}
+	
+	/**
+	 * Removes the webhook registered with Telegram. Pending updates are kept, to be retrieved by polling.
+	 */
+	public void deleteWebhook() throws TelegramException, BotTokenAccessException, IOException {
+		executeWebhookRequest(TelegramConstants.DELETE_WEBHOOK_URL, MultipartEntityBuilder.create());
+	}
+	
+	/**
+	 * Handles an update posted to the webhook, the same way polled updates are handled.
+	 * @param content request body holding the update
+	 * @throws JsonException if request body isn't a valid update
+	 * @see WebhookServer
+	 */
+	void receiveUpdate(InputStream content) {
+		synchronized (webhookParser) {
+			handleUpdates(webhookParser.parseUpdate(content), webhookParser.getLastUpdateId());
+		}
 	}
 	
 	/**
@@ -68,23 +180,36 @@ public enum Telegram implements ITelegram {
 	public void execute(String chatId, String command) 
 			throws IOException, CameraException, BotTokenAccessException, FileAccessException,
 					TelegramException  {		
-		//removes quotation marks from command
-		command = command.substring(1, command.length() -1).toLowerCase();
-		switch (command) {
+		//splits command to command name and arguments
+		String[] args = command.trim().toLowerCase().split("\\s+");
+		switch (getCommandName(args[0])) {
 			case BotCommands.IMAGE:
-				sendImage(chatId);
+				executeImage(chatId, args);
 				break;
 	
 			case BotCommands.VIDEO:
-				sendVideo(chatId);
+				VideoOptions options = parseVideoOptions(args);
+				if (options == null)
+					sendMessage(chatId, "Usage: video [seconds (1-" + maxVideoDuration + ")] [fps (1-" 
+							+ maxVideoFps + ")] [kbps]");
+				else
+					sendVideo(chatId, options);
 				break;
 				
 			case BotCommands.DETECT_ON:
-				setMotionDetection(true, chatId);
+				executeMotionDetection(true, chatId, args);
 				break;
 				
 			case BotCommands.DETECT_OFF:
-				setMotionDetection(false, chatId);
+				executeMotionDetection(false, chatId, args);
+				break;
+				
+			case BotCommands.STATS:
+				sendMessage(chatId, Metrics.INSTANCE.summarize());
+				break;
+				
+			case BotCommands.TIMELAPSE:
+				executeTimelapse(chatId, args);
 				break;
 				
 			default:
@@ -104,31 +229,132 @@ public enum Telegram implements ITelegram {
 		MultipartEntityBuilder builder = MultipartEntityBuilder.create();
 		builder.addTextBody(TelegramConstants.CHAT_ID_FIELD, chatId);
 		builder.addTextBody(TelegramConstants.TEXT_FIELD, msg);
-		sendPostRequest(getBotURL() + TelegramConstants.SEND_MESSAGE_URL, builder);
+		sendPostRequest(getBotURL() + TelegramConstants.SEND_MESSAGE_URL, chatId, SendScheduler.Lane.TEXT, builder);
 	}
 
 	/**
-	 * Sends a captured image to given chatId. <br>
-	 * Uses a {@link HttpPost} object to send a POST request to Telegram with requested method fields.
+	 * Sends an image captured by the default camera to given chatId.
 	 */
 	public void sendImage(String chatId) throws CameraException, BotTokenAccessException, 
 														IOException, FileAccessException {
-		File image = camera.saveImage(chatId);
-		sendImage(chatId, image);
+		sendImage(chatId, CameraRegistry.INSTANCE.getDefault());
+	}
+	
+	/**
+	 * Sends an image captured by given camera to given chatId. <br>
+	 * Uses a {@link HttpPost} object to send a POST request to Telegram with requested method fields.
+	 */
+	public void sendImage(String chatId, ICamera camera) throws CameraException, BotTokenAccessException, 
+														IOException, FileAccessException {
+		//chats requesting an image from the same camera at the same time share a single capture and upload
+		Snapshot snapshot = SnapshotCoalescer.INSTANCE.capture(chatId, camera);
+		Capture image = snapshot.getImage();
+		if (snapshot.claimUpload()) {
+			String fileId = null;
+			try {
+				fileId = uploadImage(chatId, image);
+			} finally {
+				//published even if upload failed, so waiting chats upload the image themselves right away
+				snapshot.setFileId(fileId);
+			}
+			return;
+		}
+		String fileId = snapshot.getFileId(uploadWaitTimeout);
+		if (fileId == null) {
+			uploadImage(chatId, image);
+			return;
+		}
+		MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+		builder.addTextBody(TelegramConstants.PHOTO_FIELD, fileId);
+		sendPhoto(chatId, builder);
+	}
+	
+	/**
+	 * Sends an image captured by each of given cameras to given chatId, as albums. <br>
+	 * Cameras capture in parallel, so this takes about as long as capturing from a single camera.
+	 */
+	public void sendCameraImages(String chatId, List<ICamera> cameras) throws CameraException, BotTokenAccessException, 
+														IOException, FileAccessException {
+		sendStatus(chatId, "Sending images...");
+		List<Snapshot> snapshots = CameraRegistry.INSTANCE.forEach(cameras, 
+				camera -> SnapshotCoalescer.INSTANCE.capture(chatId, camera));
+		List<Capture> images = new ArrayList<>(snapshots.size());
+		for (Snapshot snapshot : snapshots)
+			images.add(snapshot.getImage());
+		//an album holds up to 10 images
+		for (int i = 0; i < images.size(); i += 10)
+			sendImages(chatId, images.subList(i, Math.min(images.size(), i + 10)));
 	}
 	
 	/**
 	 * Sends given image to chat.
 	 */
 	public void sendImage(String chatId, File image) throws IOException, BotTokenAccessException {
-		sendMessage(chatId, "Sending image...");
-		//composing attributes for POST request
 		MultipartEntityBuilder builder = MultipartEntityBuilder.create();
-		builder.addTextBody(TelegramConstants.CHAT_ID_FIELD, chatId);
 		builder.addBinaryBody(TelegramConstants.PHOTO_FIELD, image);
-		//sending POST request to URL with attributes
-		HttpResponse response = sendPostRequest(getBotURL() + TelegramConstants.SEND_PHOTO_URL, builder);
+		sendPhoto(chatId, builder);
+	}
+	
+	/**
+	 * Sends given in-memory image to chat.
+	 */
+	public void sendImage(String chatId, Capture image) throws IOException, BotTokenAccessException {
+		uploadImage(chatId, image);
+	}
+	
+	/**
+	 * Sends given in-memory image to chat with a caption.
+	 */
+	public void sendImage(String chatId, Capture image, String caption) throws IOException, BotTokenAccessException {
+		MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+		builder.addTextBody(TelegramConstants.CHAT_ID_FIELD, chatId);
+		if (caption != null)
+			builder.addTextBody(TelegramConstants.CAPTION_FIELD, caption);
+		String fileId = image.getFileId();
+		if (fileId != null)
+			builder.addTextBody(TelegramConstants.PHOTO_FIELD, fileId);
+		else
+			TelegramRequests.addMedia(builder, TelegramConstants.PHOTO_FIELD, image);
+		TelegramResponse response = sendPostRequest(getBotURL() + TelegramConstants.SEND_PHOTO_URL, chatId, 
+				SendScheduler.Lane.MEDIA, builder);
 		logInvalidResponseStatus("Unable to send image", response.getStatusLine(), chatId);
+		if (fileId == null)
+			image.setFileId(response.getFileId(TelegramConstants.PHOTO_FIELD));
+	}
+	
+	/**
+	 * Sends given in-memory images to chat as an album. <br>
+	 * Uses a {@link HttpPost} object to send a sendMediaGroup request, attaching images not uploaded yet.
+	 */
+	public void sendImages(String chatId, List<Capture> images) throws IOException, BotTokenAccessException {
+		if (images.size() == 1) {
+			sendImage(chatId, images.get(0), null);
+			return;
+		}
+		MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+		builder.addTextBody(TelegramConstants.CHAT_ID_FIELD, chatId);
+		JsonArrayBuilder media = Json.createArrayBuilder();
+		for (int i = 0; i < images.size() && i < 10; i++) {
+			Capture image = images.get(i);
+			String attachment = image.getFileId();
+			if (attachment == null) {
+				attachment = TelegramConstants.PHOTO_FIELD + i;
+				TelegramRequests.addMedia(builder, attachment, image);
+				attachment = TelegramConstants.ATTACH_PREFIX + attachment;
+			}
+			media.add(Json.createObjectBuilder()
+					.add(TelegramConstants.TYPE_FIELD, TelegramConstants.PHOTO_FIELD)
+					.add(TelegramConstants.MEDIA_FIELD, attachment));
+		}
+		builder.addTextBody(TelegramConstants.MEDIA_FIELD, media.build().toString(), ContentType.APPLICATION_JSON);
+		TelegramResponse response = sendPostRequest(getBotURL() + TelegramConstants.SEND_MEDIA_GROUP_URL, chatId, 
+				SendScheduler.Lane.MEDIA, builder);
+		logInvalidResponseStatus("Unable to send images", response.getStatusLine(), chatId);
+		List<String> fileIds = response.getFileIds(TelegramConstants.PHOTO_FIELD);
+		for (int i = 0; i < fileIds.size() && i < images.size(); i++) {
+			if (images.get(i).getFileId() == null)
+				images.get(i).setFileId(fileIds.get(i));
+		}
 	}
 	
 	
@@ -137,29 +363,72 @@ public enum Telegram implements ITelegram {
 	 * Uses a {@link HttpPost} object to send a POST request to Telegram with requested method fields.
 	 */
 	public void sendVideo(String chatId) throws IOException, CameraException, BotTokenAccessException, TelegramException, FileAccessException {
-		sendMessage(chatId, "Sending video...");
+		sendVideo(chatId, VideoOptions.getDefault());
+	}
+	
+	/**
+	 * Sends a video captured with given options to chatId. <br>
+	 * Uses a {@link HttpPost} object to send a POST request to Telegram with requested method fields.
+	 */
+	public void sendVideo(String chatId, VideoOptions options) throws IOException, CameraException, 
+			BotTokenAccessException, TelegramException, FileAccessException {
+		sendStatus(chatId, "Sending video...");
 		//composing attributes for POST request
-		File video = camera.saveVideo(chatId);
+		Capture video = CameraRegistry.INSTANCE.getDefault().captureVideo(chatId, options);
 		MultipartEntityBuilder builder = MultipartEntityBuilder.create();
 		builder.addTextBody(TelegramConstants.CHAT_ID_FIELD, chatId);
-		builder.addBinaryBody(TelegramConstants.VIDEO_FIELD, video);
+		TelegramRequests.addMedia(builder, TelegramConstants.VIDEO_FIELD, video);
 		//sending POST request to URL with attributes
-		HttpResponse response = sendPostRequest(getBotURL() + TelegramConstants.SEND_VIDEO_URL, builder);
+		TelegramResponse response = sendPostRequest(getBotURL() + TelegramConstants.SEND_VIDEO_URL, chatId, 
+				SendScheduler.Lane.MEDIA, builder);
+		logInvalidResponseStatus("Unable to send video", response.getStatusLine(), chatId);
+	}
+	
+	/**
+	 * Sends given in-memory video to chat with a caption.
+	 */
+	public void sendVideo(String chatId, Capture video, String caption) throws IOException, BotTokenAccessException {
+		MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+		builder.addTextBody(TelegramConstants.CHAT_ID_FIELD, chatId);
+		if (caption != null)
+			builder.addTextBody(TelegramConstants.CAPTION_FIELD, caption);
+		String fileId = video.getFileId();
+		if (fileId != null)
+			builder.addTextBody(TelegramConstants.VIDEO_FIELD, fileId);
+		else
+			TelegramRequests.addMedia(builder, TelegramConstants.VIDEO_FIELD, video);
+		TelegramResponse response = sendPostRequest(getBotURL() + TelegramConstants.SEND_VIDEO_URL, chatId, 
+				SendScheduler.Lane.MEDIA, builder);
 		logInvalidResponseStatus("Unable to send video", response.getStatusLine(), chatId);
+		if (fileId == null)
+			video.setFileId(response.getFileId(TelegramConstants.VIDEO_FIELD));
 	}
 	
 	/**
-	 * Sets motion detection state.
+	 * Sets motion detection state on all cameras.
 	 */
 	public void setMotionDetection(boolean value, String chatId) throws IOException, BotTokenAccessException {
-		if (value) {
-			MotionDetector.INSTANCE.start(chatId);
-			sendMessage(chatId, "Motion detection on");
+		setMotionDetection(value, chatId, CameraRegistry.INSTANCE.getCameras());
+	}
+	
+	/**
+	 * Sets motion detection state on given cameras.
+	 */
+	public void setMotionDetection(boolean value, String chatId, List<ICamera> cameras) 
+			throws IOException, BotTokenAccessException {
+		if (cameras.isEmpty()) {
+			sendMessage(chatId, "Unable to find camera");
+			return;
 		}
-		else {
-			MotionDetector.INSTANCE.stop();
-			sendMessage(chatId, "Motion detection off");
+		for (ICamera camera : cameras) {
+			if (value)
+				MotionDetector.INSTANCE.start(chatId, camera);
+			else
+				MotionDetector.INSTANCE.stop(chatId, camera);
 		}
+		String target = cameras.size() < CameraRegistry.INSTANCE.getCameras().size() 
+				? " (camera " + cameras.get(0).getId() + ")" : "";
+		sendMessage(chatId, "Motion detection " + (value ? "on" : "off") + target);
 	}
 	
 	
@@ -168,6 +437,186 @@ public enum Telegram implements ITelegram {
 	 */
 	
 	
+	/**
+	 * Returns command name, without the leading slash and bot name Telegram adds to commands 
+	 *  (e.g. "/image@CameraCaptureBot" is returned as "image").
+	 * @param command command sent
+	 * @return A String representing the command name
+	 */
+	private String getCommandName(String command) {
+		if (command.startsWith("/"))
+			command = command.substring(1);
+		int botNameIndex = command.indexOf('@');
+		return botNameIndex < 0 ? command : command.substring(0, botNameIndex);
+	}
+	
+	/**
+	 * Sends an image from the cameras targeted by command arguments: [camera | all] (default camera if missing).
+	 * @param chatId Id of telegram chat
+	 * @param args command name followed by its arguments
+	 */
+	private void executeImage(String chatId, String[] args) throws CameraException, BotTokenAccessException, 
+			IOException, FileAccessException {
+		List<ICamera> cameras = parseCameras(args, false);
+		if (cameras == null)
+			sendMessage(chatId, getCamerasUsage(BotCommands.IMAGE));
+		else if (cameras.size() == 1)
+			sendImage(chatId, cameras.get(0));
+		else
+			sendCameraImages(chatId, cameras);
+	}
+	
+	/**
+	 * Sets motion detection state on the cameras targeted by command arguments: [camera | all] (all if missing).
+	 * @param value {@code true} to start motion detection, {@code false} to stop it
+	 * @param chatId Id of telegram chat
+	 * @param args command name followed by its arguments
+	 */
+	private void executeMotionDetection(boolean value, String chatId, String[] args) throws CameraException, 
+			IOException, BotTokenAccessException {
+		List<ICamera> cameras = parseCameras(args, true);
+		if (cameras == null)
+			sendMessage(chatId, getCamerasUsage(value ? BotCommands.DETECT_ON : BotCommands.DETECT_OFF));
+		else
+			setMotionDetection(value, chatId, cameras);
+	}
+	
+	/**
+	 * Starts a timelapse on the default camera: [interval seconds] [duration minutes], or stops it: stop.
+	 * Missing arguments are set to their defaults (a frame every 10 seconds, for an hour).
+	 * @param chatId Id of telegram chat
+	 * @param args command name followed by its arguments
+	 */
+	private void executeTimelapse(String chatId, String[] args) throws CameraException, IOException, 
+			BotTokenAccessException {
+		TimelapseRecorder recorder = TimelapseRecorder.INSTANCE;
+		if (args.length == 2 && "stop".equals(args[1])) {
+			if (! recorder.stop(chatId))
+				sendMessage(chatId, "No timelapse is being recorded");
+			return;
+		}
+		int interval, duration;
+		try {
+			interval = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+			duration = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+		} catch (NumberFormatException exc) {
+			interval = duration = 0;
+		}
+		if (args.length > 3 || interval < 1 || interval > 3600 || duration < 1 || duration > maxTimelapseDuration) {
+			sendMessage(chatId, "Usage: timelapse [interval seconds (1-3600)] [duration minutes (1-" 
+					+ maxTimelapseDuration + ")] | stop");
+			return;
+		}
+		if (recorder.start(chatId, CameraRegistry.INSTANCE.getDefault(), interval, duration * 60, this))
+			sendMessage(chatId, "Recording timelapse: a frame every " + interval + " seconds for " + duration 
+					+ " minutes");
+		else
+			sendMessage(chatId, "A timelapse is already being recorded, send timelapse stop to end it");
+	}
+	
+	/**
+	 * Parses targeted cameras from command arguments: [camera number | all].
+	 * @param args command name followed by its arguments
+	 * @param allByDefault {@code true} to target all cameras if missing, {@code false} to target the default camera
+	 * @return A List of {@link ICamera} objects, {@code null} if arguments are invalid
+	 * @throws CameraException if default camera is targeted but no camera was found
+	 */
+	private List<ICamera> parseCameras(String[] args, boolean allByDefault) throws CameraException {
+		CameraRegistry registry = CameraRegistry.INSTANCE;
+		if (args.length < 2)
+			return allByDefault ? registry.getCameras() : Collections.singletonList(registry.getDefault());
+		if (args.length > 2)
+			return null;
+		if ("all".equals(args[1]))
+			return registry.getCameras();
+		try {
+			return Collections.singletonList(registry.getCamera(Integer.parseInt(args[1])));
+		} catch (NumberFormatException | CameraException exc) {
+			return null;
+		}
+	}
+	
+	private String getCamerasUsage(String command) {
+		return "Usage: " + command + " [camera (1-" + CameraRegistry.INSTANCE.getCameras().size() + ") | all]";
+	}
+	
+	/**
+	 * Parses video options from command arguments: [seconds] [fps] [kbps]. 
+	 * Missing arguments are set to their defaults.
+	 * @param args command name followed by its arguments
+	 * @return A {@link VideoOptions} object, {@code null} if arguments are invalid
+	 */
+	private VideoOptions parseVideoOptions(String[] args) {
+		VideoOptions defaults = VideoOptions.getDefault();
+		try {
+			int duration = args.length > 1 ? Integer.parseInt(args[1]) : defaults.getDuration();
+			int fps = args.length > 2 ? Integer.parseInt(args[2]) : defaults.getFps();
+			int bitRate = args.length > 3 ? Integer.parseInt(args[3]) * 1000 : defaults.getBitRate();
+			if (duration < 1 || duration > maxVideoDuration || fps < 1 || fps > maxVideoFps || bitRate < 0)
+				return null;
+			return new VideoOptions(duration, fps, bitRate);
+		} catch (NumberFormatException exc) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Sends a status message announcing media about to be sent. <br>
+	 * The message waits a short while for the media, and is dropped if the media is sent meanwhile,
+	 *  so it's only sent when the media is slow to come. A chat has at most one waiting status message.
+	 * @param chatId chat to send message to
+	 * @param status message to send
+	 * @throws IOException if unable to connect to telegram 
+	 * @throws BotTokenAccessException if unable to access bot token
+	 */
+	private void sendStatus(String chatId, String status) throws IOException, BotTokenAccessException {
+		if (statusDelay <= 0) {
+			sendMessage(chatId, status);
+			return;
+		}
+		pendingStatus.computeIfAbsent(chatId, key -> statusSender.schedule(() -> {
+			if (pendingStatus.remove(chatId) == null)
+				return;
+			try {
+				sendMessage(chatId, status);
+			} catch (IOException | BotTokenAccessException exc) {
+				logger.warn("Unable to send status message to chat {}: {}", chatId, exc.getMessage());
+			}
+		}, statusDelay, TimeUnit.MILLISECONDS));
+	}
+	
+	/**
+	 * Uploads image to chat.
+	 * @param chatId chat to send image to
+	 * @param image image to send
+	 * @return A String representing the file id Telegram assigned to the image, {@code null} if upload failed
+	 * @throws IOException if unable to connect to telegram
+	 * @throws BotTokenAccessException if unable to access bot token
+	 */
+	private String uploadImage(String chatId, Capture image) throws IOException, BotTokenAccessException {
+		MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+		TelegramRequests.addMedia(builder, TelegramConstants.PHOTO_FIELD, image);
+		return sendPhoto(chatId, builder).getFileId(TelegramConstants.PHOTO_FIELD);
+	}
+	
+	/**
+	 * Sends a photo to chat, showing it's being sent meanwhile.
+	 * @param chatId chat to send photo to
+	 * @param builder request attributes holding the photo (as an upload or a file id)
+	 * @return A {@link TelegramResponse} object holding Telegram's response
+	 * @throws IOException if unable to connect to telegram
+	 * @throws BotTokenAccessException if unable to access bot token
+	 */
+	private TelegramResponse sendPhoto(String chatId, MultipartEntityBuilder builder) 
+			throws IOException, BotTokenAccessException {
+		sendStatus(chatId, "Sending image...");
+		builder.addTextBody(TelegramConstants.CHAT_ID_FIELD, chatId);
+		TelegramResponse response = sendPostRequest(getBotURL() + TelegramConstants.SEND_PHOTO_URL, chatId, 
+				SendScheduler.Lane.MEDIA, builder);
+		logInvalidResponseStatus("Unable to send image", response.getStatusLine(), chatId);
+		return response;
+	}
+	
 	/**
 	 * Retrieves bot URL.
 	 * @return A String representing bot url
@@ -175,57 +624,206 @@ public enum Telegram implements ITelegram {
 	 */
 	private String getBotURL() throws BotTokenAccessException {
 		if (botURL == null || botURL.isEmpty())
-			botURL = TelegramConstants.BASE_URL + bot.getBotToken();
+			botURL = baseURL + bot.getBotToken();
 		return botURL;
 	}
 	
 	/**
-	 * Sends an {@link HttpPost} request to given URL. Returns an {@link HttpResponse} object.
+	 * Creates the HTTP client shared by all requests. <br>
+	 * Connections are pooled and kept alive between requests, so that only the first request 
+	 *  to Telegram pays for the TLS handshake.
+	 * @return a {@link CloseableHttpClient} object
+	 */
+	private CloseableHttpClient createHttpClient() {
+		int maxConnections = Settings.getInt(SettingKeys.MAX_CONNECTIONS, 10);
+		int connectTimeout = Settings.getInt(SettingKeys.CONNECT_TIMEOUT, 10) * 1000;
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(maxConnections);
+		connectionManager.setDefaultMaxPerRoute(maxConnections);
+		//socket timeout must outlast the long polling timeout
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(connectTimeout)
+				.setConnectionRequestTimeout(connectTimeout)
+				.setSocketTimeout(pollTimeout * 1000 + connectTimeout)
+				.build();
+		return HttpClientBuilder.create()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+				.evictExpiredConnections()
+				.evictIdleConnections(pollTimeout + 30L, TimeUnit.SECONDS)
+				.build();
+	}
+	
+	/**
+	 * Sends an {@link HttpPost} request to given URL when the {@link SendScheduler} allows it. 
+	 *  Returns a {@link TelegramResponse} object. <br>
+	 * Throttled requests (HTTP 429) are sent again once the time Telegram asked to wait passes. 
+	 *  Requests that failed on Telegram's side (HTTP 5xx) or couldn't connect are sent again after a backoff, 
+	 *  doubled on every attempt. Either way the chat is paused meanwhile. 
+	 *  Media sent to a chat drops the chat's waiting status message.
 	 * @param url URL to send the HTTP request to. 
+	 * @param chatId chat request is sent to
+	 * @param lane lane of request
 	 * @param builder a {@link MultipartEntityBuilder} object
-	 * @return an {@link HttpResponse} object
+	 * @return a {@link TelegramResponse} object of the last attempt
 	 * @throws IOException if unable to connect to telegram
 	 */
-	private HttpResponse sendPostRequest(String url, MultipartEntityBuilder builder) throws IOException {
+	private TelegramResponse sendPostRequest(String url, String chatId, SendScheduler.Lane lane, 
+			MultipartEntityBuilder builder) throws IOException {
 		HttpPost httpPost = new HttpPost(url);
-		httpPost.setEntity(builder.build());
-		HttpClient client = HttpClientBuilder.create().build();
-		return client.execute(httpPost);
+		HttpEntity requestEntity = builder.build();
+		httpPost.setEntity(requestEntity);
+		for (int attempt = 0; ; attempt++) {
+			scheduler.acquire(chatId, lane);
+			if (lane == SendScheduler.Lane.MEDIA) {
+				ScheduledFuture<?> status = pendingStatus.remove(chatId);
+				if (status != null)
+					status.cancel(false);
+			}
+			//backoff doubles on every attempt, with up to 50% jitter so retries don't come at once
+			long backoff = (retryBackoff << Math.min(attempt, 10)) * (2 + ThreadLocalRandom.current().nextInt(2)) / 2;
+			TelegramResponse response;
+			try {
+				response = executePostRequest(httpPost, requestEntity);
+			} catch (ConnectException | ConnectTimeoutException exc) {
+				//never reached Telegram, so it's safe to send again
+				if (attempt >= maxRetries)
+					throw exc;
+				requestRetries.increment();
+				scheduler.pause(chatId, backoff);
+				continue;
+			}
+			int statusCode = response.getStatusLine().getStatusCode();
+			if (attempt >= maxRetries || (statusCode != tooManyRequests && statusCode < 500))
+				return response;
+			requestRetries.increment();
+			int retryAfter = response.getRetryAfter();
+			if (statusCode == tooManyRequests && retryAfter >= 0)
+				scheduler.pause(chatId, retryAfter * 1000L);
+			else
+				scheduler.pause(chatId, backoff);
+			logger.debug("Sending to chat {} again ({}), attempt {}", chatId, statusCode, attempt + 2);
+		}
 	}
 	
 	/**
-	 * Fetches incoming updates. Returns a {@link HttpResponse}. <br>
+	 * Sends an {@link HttpPost} request. Returns a {@link TelegramResponse} object. <br>
+	 * The response body is fully read so the connection can be reused.
+	 * @param httpPost request to send
+	 * @param requestEntity body of request
+	 * @return a {@link TelegramResponse} object
+	 * @throws IOException if unable to connect to telegram
+	 */
+	private TelegramResponse executePostRequest(HttpPost httpPost, HttpEntity requestEntity) throws IOException {
+		long start = System.nanoTime();
+		try (CloseableHttpResponse response = client.execute(httpPost)) {
+			if (isValidStatusCode(response.getStatusLine()))
+				uploadedBytes.add(Math.max(0, requestEntity.getContentLength()));
+			else
+				requestFailures.increment();
+			JsonObject body = null;
+			HttpEntity entity = response.getEntity();
+			if (entity != null) {
+				try (InputStream content = entity.getContent()) {
+					body = Json.createReader(content).readObject();
+				} catch (JsonException exc) {
+					logger.warn("Unable to read response from {}: {}", httpPost.getURI().getPath(), exc.getMessage());
+				}
+			}
+			return new TelegramResponse(response.getStatusLine(), body);
+		} catch (IOException exc) {
+			requestFailures.increment();
+			throw exc;
+		} finally {
+			requestTime.recordSince(start);
+		}
+	}
+	
+	/**
+	 * Fetches incoming updates. Returns a {@link CloseableHttpResponse}. <br>
 	 * Uses a {@link HttpGet} object to send a GET request to Telegram.
-	 * @return a HttpResponse object.
+	 * @return a CloseableHttpResponse object, to be closed by caller.
 	 * @throws IOException if unable to connect to telegram
 	 */
-	private HttpResponse fetchUpdates(String url) throws IOException {
+	private CloseableHttpResponse fetchUpdates(String url) throws IOException {
 		HttpGet httpGet = new HttpGet(url);
-		HttpClient client = HttpClientBuilder.create().build();
-		HttpResponse response = client.execute(httpGet);
-		return response;
+		return client.execute(httpGet);
+	}
+	
+	/**
+	 * Handles received updates - polled or posted to the webhook. Updates received before are skipped, 
+	 *  and the rest are committed to the {@link UpdateCheckpoint} before their commands are dispatched.
+	 * @param updates received text message updates
+	 * @param lastUpdateId id of the last received update, including updates that aren't text messages
+	 *  ({@code -1} if none)
+	 */
+	private void handleUpdates(List<Update> updates, long lastUpdateId) {
+		List<Update> accepted = new ArrayList<>(updates.size());
+		for (Update update : updates)
+			if (checkpoint.accept(update.getUpdateId()))
+				accepted.add(update);
+		if (lastUpdateId >= 0)
+			checkpoint.commit(lastUpdateId + 1);
+		if(accepted.size() > 0)
+			executeResponse(accepted);
+	}
+	
+	/**
+	 * Sends a webhook request, which isn't sent to any chat and isn't paced.
+	 * @param method URL of Bot API method
+	 * @param builder request fields
+	 * @throws TelegramException if telegram refused the request
+	 */
+	private void executeWebhookRequest(String method, MultipartEntityBuilder builder) 
+			throws TelegramException, BotTokenAccessException, IOException {
+		HttpPost httpPost = new HttpPost(getBotURL() + method);
+		HttpEntity requestEntity = builder.build();
+		httpPost.setEntity(requestEntity);
+		TelegramResponse response = executePostRequest(httpPost, requestEntity);
+		StatusLine statusLine = response.getStatusLine();
+		JsonObject body = response.getBody();
+		if (! isValidStatusCode(statusLine) || body == null || ! body.getBoolean(TelegramConstants.OK_FIELD, false)) {
+			String description = body == null ? statusLine.getReasonPhrase() 
+					: body.getString(TelegramConstants.DESCRIPTION_FIELD, statusLine.getReasonPhrase());
+			throw new TelegramException("Unable to " + method.substring(1) + " (" + statusLine.getStatusCode() + "): " 
+					+ description);
+		}
 	}
 	
 	/**
 	 * Executes response from retrieved updates.<br>
-	 * Uses a {@link JsonObject} object to extract the sent command and chatId from response. 
-	 *  Activates command on bot.
-	 * @param results a JasonArray object
-	 * @throws IOException if unable to connect to telegram
+	 * Hands commands to the {@link CommandDispatcher}, so polling continues while they execute.
+	 * @param updates a List of retrieved {@link Update} objects
 	 */
-	private void executeResponse(JsonArray results) {
-		logger.trace("Got {} updates", results.size());
-		for(int i=0; i < results.size(); i++) {
-			JsonObject jObject = results.getJsonObject(i).getJsonObject(TelegramConstants.MESSAGE_FIELD);
-			String command = jObject.getJsonString(TelegramConstants.TEXT_FIELD).toString();
-			int chatId = jObject.getJsonObject(TelegramConstants.CHAT_FIELD).getInt(TelegramConstants.ID_FIELD);
-			try {
-				execute(chatId+"", command);
-			} catch (Exception e) {
-				logger.error("Unable to execute command '" + command +"': " + e.getMessage(), e);
-			}
+	private void executeResponse(List<Update> updates) {
+		logger.trace("Got {} updates", updates.size());
+		for (Update update : updates) {
+			String chatId = update.getChatId();
+			String command = update.getText();
+			long received = System.nanoTime();
+			commands.increment();
+			CommandDispatcher.INSTANCE.dispatch(chatId, () -> executeCommand(chatId, command, received));
+		}
+	}
+	
+	/**
+	 * Executes command, logging failures.
+	 * @param chatId Id of telegram chat
+	 * @param command String sent
+	 * @param received time command was received (in ns)
+	 */
+	private void executeCommand(String chatId, String command, long received) {
+		long start = System.nanoTime();
+		commandQueueTime.record(start - received);
+		try {
+			execute(chatId, command);
+		} catch (Exception e) {
+			commandFailures.increment();
+			logger.error("Unable to execute command '" + command +"': " + e.getMessage(), e);
+		} finally {
+			commandTime.recordSince(start);
 		}
-		lastOffset = results.getJsonObject(results.size()-1).getInt(TelegramConstants.UPDATE_ID_FIELD) + 1;
 	}
 	
 	
@@ -0,0 +1,26 @@
+package org.miri.camcapture.impl;
+
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.miri.camcapture.api.Capture;
+
+/**
+ * Helpers for composing Telegram requests.
+ * @author Miri Yehezkel
+ *
+ */
+final class TelegramRequests {
+	
+	private TelegramRequests() {}
+	
+	/**
+	 * Adds in-memory media to request, uploaded directly from memory.
+	 * @param builder a {@link MultipartEntityBuilder} object
+	 * @param field name of media field
+	 * @param media captured media
+	 */
+	static void addMedia(MultipartEntityBuilder builder, String field, Capture media) {
+		builder.addBinaryBody(field, media.getData(), ContentType.create(media.getMimeType()), media.getFileName());
+	}
+	
+}
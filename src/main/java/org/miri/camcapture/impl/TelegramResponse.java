@@ -0,0 +1,102 @@
+package org.miri.camcapture.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+import org.apache.http.StatusLine;
+import org.miri.camcapture.api.TelegramConstants;
+
+/**
+ * Represents a response to a request sent to Telegram.
+ * @author Miri Yehezkel
+ *
+ */
+class TelegramResponse {
+	private final StatusLine statusLine;
+	private final JsonObject body;
+	
+	/**
+	 * @param statusLine {@link StatusLine} of the response
+	 * @param body JSON body of the response, {@code null} if response isn't JSON
+	 */
+	TelegramResponse(StatusLine statusLine, JsonObject body) {
+		this.statusLine = statusLine;
+		this.body = body;
+	}
+	
+	StatusLine getStatusLine() {
+		return statusLine;
+	}
+	
+	JsonObject getBody() {
+		return body;
+	}
+	
+	/**
+	 * Retrieves the time Telegram asked to wait before sending again, when a request was throttled.
+	 * @return Time to wait (in seconds), {@code -1} if not given
+	 */
+	int getRetryAfter() {
+		if (body == null)
+			return -1;
+		JsonObject parameters = body.getJsonObject(TelegramConstants.PARAMETERS_FIELD);
+		return parameters == null ? -1 : parameters.getInt(TelegramConstants.RETRY_AFTER_FIELD, -1);
+	}
+	
+	/**
+	 * Retrieves the file id Telegram assigned to an uploaded photo or video.
+	 * Photos are returned in several sizes, the largest size is used.
+	 * @param mediaField {@link TelegramConstants#PHOTO_FIELD} or {@link TelegramConstants#VIDEO_FIELD}
+	 * @return A String representing the file id, {@code null} if not found
+	 */
+	String getFileId(String mediaField) {
+		if (body == null || ! body.getBoolean(TelegramConstants.OK_FIELD, false))
+			return null;
+		JsonValue result = body.get(TelegramConstants.RESULT_FIELD);
+		return result == null ? null : getFileId(result, mediaField);
+	}
+	
+	/**
+	 * Retrieves the file ids Telegram assigned to an uploaded media group, in the order the media was sent.
+	 * @param mediaField {@link TelegramConstants#PHOTO_FIELD} or {@link TelegramConstants#VIDEO_FIELD}
+	 * @return A List of file ids ({@code null} for media without one), empty if response is invalid
+	 */
+	List<String> getFileIds(String mediaField) {
+		List<String> fileIds = new ArrayList<>();
+		if (body == null || ! body.getBoolean(TelegramConstants.OK_FIELD, false))
+			return fileIds;
+		JsonValue result = body.get(TelegramConstants.RESULT_FIELD);
+		if (result == null || result.getValueType() != JsonValue.ValueType.ARRAY)
+			return fileIds;
+		for (JsonValue message : (JsonArray) result)
+			fileIds.add(getFileId(message, mediaField));
+		return fileIds;
+	}
+	
+	
+	/**
+	 * Retrieves file id of media in a message.
+	 * @param message a message object
+	 * @param mediaField name of media field
+	 * @return A String representing the file id, {@code null} if not found
+	 */
+	private String getFileId(JsonValue message, String mediaField) {
+		if (message.getValueType() != JsonValue.ValueType.OBJECT || ! ((JsonObject) message).containsKey(mediaField))
+			return null;
+		JsonValue media = ((JsonObject) message).get(mediaField);
+		if (media.getValueType() == JsonValue.ValueType.ARRAY) {
+			JsonArray sizes = (JsonArray) media;
+			if (sizes.isEmpty())
+				return null;
+			media = sizes.get(sizes.size() - 1);
+		}
+		if (media.getValueType() != JsonValue.ValueType.OBJECT)
+			return null;
+		return ((JsonObject) media).getString(TelegramConstants.FILE_ID_FIELD, null);
+	}
+	
+}
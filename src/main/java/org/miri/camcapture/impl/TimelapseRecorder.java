@@ -0,0 +1,275 @@
+package org.miri.camcapture.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.miri.camcapture.api.Capture;
+import org.miri.camcapture.api.CaptureProfile;
+import org.miri.camcapture.api.Frame;
+import org.miri.camcapture.api.ICamera;
+import org.miri.camcapture.api.ITelegram;
+import org.miri.camcapture.api.SettingKeys;
+import org.miri.camcapture.api.VideoOptions;
+import org.miri.camcapture.exceptions.CameraException;
+import org.miri.camcapture.util.Counter;
+import org.miri.camcapture.util.DaemonThreadFactory;
+import org.miri.camcapture.util.Metrics;
+import org.miri.camcapture.util.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records timelapses - a frame every interval, over minutes or hours - and sends them to chats in segments. <br>
+ * A single thread samples all timelapses: on every tick, each camera's latest frame is read once (into a frame reused
+ *  between ticks) and appended to every timelapse of the camera that is due for a frame. Frames are encoded into
+ *  the timelapse's open segment as they are sampled, and once a segment holds enough frames it's closed and sent,
+ *  and a new segment is started. So memory stays flat however long a timelapse runs. <br>
+ * Segments are sent on a separate thread, so uploads never delay sampling.
+ * @author Miri Yehezkel
+ *
+ */
+public enum TimelapseRecorder {
+	INSTANCE;
+	private final Logger logger = LoggerFactory.getLogger(TimelapseRecorder.class);
+	private static final String videoFileType = ".mp4";
+	private static final String videoMimeType = "video/mp4";
+	private static final DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("HH:mm")
+			.withZone(ZoneId.systemDefault());
+	//time (in ms) between ticks, the finest sampling interval
+	private static final long tickInterval = 1000;
+	private final int fps = Math.max(1, Settings.getInt(SettingKeys.TIMELAPSE_FPS, 30));
+	private final int segmentFrames = Math.max(1, Settings.getInt(SettingKeys.TIMELAPSE_SEGMENT_FRAMES, 300));
+	private final long frameTimeout = 5000;
+	private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(
+			new DaemonThreadFactory("timelapse"));
+	private final ExecutorService sender = Executors.newSingleThreadExecutor(new DaemonThreadFactory("timelapse-sender"));
+	private final Counter sampledFrames = Metrics.INSTANCE.counter("camcapture_timelapse_frames_total",
+			"Frames appended to timelapses");
+	//timelapse per chat
+	private final Map<String, Timelapse> timelapses = new ConcurrentHashMap<>();
+	//latest frame per camera number, reused between ticks (accessed by sampler thread only)
+	private final Map<Integer, Frame> frames = new HashMap<>();
+	private ScheduledFuture<?> ticker;
+	
+	
+	private TimelapseRecorder() {
+		Metrics.INSTANCE.gauge("camcapture_timelapses_active", "Timelapses being recorded", () -> timelapses.size());
+	}
+	
+	
+	/**
+	 * Starts a timelapse for chat.
+	 * @param chatId Id of telegram chat
+	 * @param camera camera to sample
+	 * @param interval time (in seconds) between frames
+	 * @param duration timelapse length (in seconds)
+	 * @param telegram used to send segments
+	 * @return {@code true} if started, {@code false} if chat already has a timelapse
+	 */
+	public synchronized boolean start(String chatId, ICamera camera, int interval, int duration, ITelegram telegram) {
+		long now = System.currentTimeMillis();
+		Timelapse timelapse = new Timelapse(chatId, camera, interval * 1000L, now + duration * 1000L, telegram);
+		if (timelapses.putIfAbsent(chatId, timelapse) != null)
+			return false;
+		timelapse.nextSample = now;
+		if (ticker == null)
+			ticker = sampler.scheduleAtFixedRate(this::tick, 0, tickInterval, TimeUnit.MILLISECONDS);
+		return true;
+	}
+	
+	/**
+	 * Stops chat's timelapse. Frames sampled so far are still sent.
+	 * @param chatId Id of telegram chat
+	 * @return {@code true} if chat had a timelapse, {@code false} otherwise
+	 */
+	public boolean stop(String chatId) {
+		Timelapse timelapse = timelapses.get(chatId);
+		if (timelapse == null)
+			return false;
+		timelapse.stopped = true;
+		return true;
+	}
+	
+	
+	/**
+	 * Samples timelapses due for a frame, and finishes ended timelapses. Runs on the sampler thread.
+	 */
+	private void tick() {
+		long now = System.currentTimeMillis();
+		//cameras read on this tick
+		Map<Integer, Frame> sampled = new HashMap<>();
+		for (Timelapse timelapse : timelapses.values()) {
+			if (timelapse.stopped || now >= timelapse.end) {
+				finish(timelapse);
+				continue;
+			}
+			if (now < timelapse.nextSample)
+				continue;
+			//frames missed (e.g. while the camera was unavailable) are skipped
+			while (timelapse.nextSample <= now)
+				timelapse.nextSample += timelapse.interval;
+			try {
+				Frame frame = sampled.get(timelapse.camera.getId());
+				if (frame == null) {
+					frame = timelapse.camera.getFrameBuffer().getNextFrame(-1, frames.get(timelapse.camera.getId()),
+							frameTimeout, CaptureProfile.VIDEO);
+					frames.put(timelapse.camera.getId(), frame);
+					sampled.put(timelapse.camera.getId(), frame);
+				}
+				timelapse.append(frame);
+				sampledFrames.increment();
+			} catch (CameraException exc) {
+				logger.warn("Unable to sample timelapse frame for chat {}: {}", timelapse.chatId, exc.getMessage());
+			} catch (IOException | RuntimeException exc) {
+				logger.error("Unable to record timelapse for chat " + timelapse.chatId + ": " + exc.getMessage(), exc);
+				timelapse.failed = true;
+				finish(timelapse);
+			}
+		}
+		stopIfIdle();
+	}
+	
+	/**
+	 * Ends timelapse, sending its last segment.
+	 * @param timelapse timelapse to end
+	 */
+	private void finish(Timelapse timelapse) {
+		timelapses.remove(timelapse.chatId, timelapse);
+		try {
+			timelapse.closeSegment(true);
+		} catch (IOException | RuntimeException exc) {
+			logger.error("Unable to finish timelapse for chat " + timelapse.chatId + ": " + exc.getMessage(), exc);
+			timelapse.failed = true;
+		}
+		if (timelapse.failed)
+			send(timelapse, () -> timelapse.telegram.sendMessage(timelapse.chatId, "Unable to record timelapse"));
+	}
+	
+	/**
+	 * Stops ticking once no timelapse is left, and returns the frames kept between ticks to the pool.
+	 */
+	private synchronized void stopIfIdle() {
+		if (timelapses.isEmpty() && ticker != null) {
+			ticker.cancel(false);
+			ticker = null;
+			for (Frame frame : frames.values())
+				FramePool.INSTANCE.release(frame);
+			frames.clear();
+		}
+	}
+	
+	/**
+	 * Sends to chat on the sender thread.
+	 * @param timelapse timelapse of chat
+	 * @param task sending task
+	 */
+	private void send(Timelapse timelapse, SendTask task) {
+		sender.execute(() -> {
+			try {
+				task.send();
+			} catch (Exception exc) {
+				logger.error("Unable to send timelapse to chat " + timelapse.chatId + ": " + exc.getMessage(), exc);
+			}
+		});
+	}
+	
+	
+	/**
+	 * A timelapse of a chat. Accessed by the sampler thread only, except for its stop flag.
+	 */
+	private class Timelapse {
+		private final String chatId;
+		private final ICamera camera;
+		private final long interval;
+		private final long end;
+		private final ITelegram telegram;
+		private volatile boolean stopped;
+		private boolean failed;
+		private long nextSample;
+		//current segment
+		private int segment;
+		private File file;
+		private VideoEncoder encoder;
+		private int segmentPictures;
+		private long segmentStart;
+	
+		Timelapse(String chatId, ICamera camera, long interval, long end, ITelegram telegram) {
+			this.chatId = chatId;
+			this.camera = camera;
+			this.interval = interval;
+			this.end = end;
+			this.telegram = telegram;
+		}
+	
+		/**
+		 * Encodes frame into the current segment, starting a segment if needed. Sends the segment once it's full.
+		 * @param frame sampled frame
+		 * @throws IOException if unable to create or read segment file
+		 */
+		void append(Frame frame) throws IOException {
+			if (encoder == null) {
+				file = File.createTempFile("timelapse", videoFileType);
+				encoder = new VideoEncoder(file, frame.getImage().getWidth(), frame.getImage().getHeight(),
+						new VideoOptions(0, fps, VideoOptions.getDefault().getBitRate()));
+				segment++;
+				segmentPictures = 0;
+				segmentStart = frame.getTimestamp();
+			}
+			//frames are played back at a fixed rate, however far apart they were sampled
+			encoder.encode(frame.getImage(), segmentPictures * 1000000L / fps);
+			segmentPictures++;
+			if (segmentPictures >= segmentFrames)
+				closeSegment(false);
+		}
+	
+		/**
+		 * Closes the current segment (if any) and sends it to chat. The segment file is deleted once read.
+		 * @param last {@code true} if it's the timelapse's last segment
+		 * @throws IOException if unable to read segment file
+		 */
+		void closeSegment(boolean last) throws IOException {
+			if (encoder == null) {
+				if (last && segment == 0 && ! failed)
+					send(this, () -> telegram.sendMessage(chatId, "Timelapse ended without frames"));
+				return;
+			}
+			try {
+				encoder.close();
+				encoder = null;
+				Capture video = new Capture(chatId, segmentStart, Files.readAllBytes(file.toPath()),
+						videoFileType, videoMimeType);
+				CaptureArchiver.INSTANCE.archive(video);
+				String caption = "Timelapse " + (last && segment == 1 ? "" : "part " + segment + (last ? ", last " : " "))
+						+ "(" + timeFormatter.format(Instant.ofEpochMilli(segmentStart)) + "-"
+						+ timeFormatter.format(Instant.now()) + ")";
+				send(this, () -> telegram.sendVideo(chatId, video, caption));
+			} finally {
+				encoder = null;
+				if (! file.delete())
+					file.deleteOnExit();
+			}
+		}
+	
+	}
+	
+	/**
+	 * A message sent to a chat.
+	 */
+	@FunctionalInterface
+	private interface SendTask {
+		void send() throws Exception;
+	}
+	
+}
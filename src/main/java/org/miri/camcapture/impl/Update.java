@@ -0,0 +1,40 @@
+package org.miri.camcapture.impl;
+
+/**
+ * Represents an incoming Telegram update carrying a text message. <br>
+ * Updates are reused by {@link UpdateParser} between polls, so their values should be read
+ *  before the next poll.
+ * @author Miri Yehezkel
+ *
+ */
+class Update {
+	private long updateId;
+	private String chatId;
+	private String text;
+	
+	
+	/**
+	 * Sets update's values.
+	 * @param updateId Id of update
+	 * @param chatId Id of chat message was sent from
+	 * @param text message text
+	 */
+	void set(long updateId, String chatId, String text) {
+		this.updateId = updateId;
+		this.chatId = chatId;
+		this.text = text;
+	}
+	
+	long getUpdateId() {
+		return updateId;
+	}
+	
+	String getChatId() {
+		return chatId;
+	}
+	
+	String getText() {
+		return text;
+	}
+	
+}
@@ -0,0 +1,195 @@
+package org.miri.camcapture.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.miri.camcapture.api.SettingKeys;
+import org.miri.camcapture.util.Counter;
+import org.miri.camcapture.util.FileUtil;
+import org.miri.camcapture.util.Metrics;
+import org.miri.camcapture.util.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the update offset and the ids of recently received updates across restarts,
+ *  so updates received before a restart or crash are not executed again. <br>
+ * Received updates are committed once per batch (a poll), by appending a line of the new offset followed by the
+ *  batch's update ids to a log, synced to disk. A line torn by a crash is ignored when the log is read.
+ *  Every so often the log is compacted into a single line, written to a temporary file that replaces the log
+ *  by an atomic rename. <br>
+ * Updates are committed before their commands are dispatched, so a command is never executed twice,
+ *  at the cost of losing commands not yet executed when the bot crashes.
+ * @author Miri Yehezkel
+ *
+ */
+enum UpdateCheckpoint {
+	INSTANCE;
+	private final Logger logger = LoggerFactory.getLogger(UpdateCheckpoint.class);
+	//lines appended before the log is compacted
+	private static final int compactLines = 1000;
+	private final Path logFile = Paths.get(Settings.getString(SettingKeys.UPDATE_CHECKPOINT_FILE, "CameraCaptureBotOffset"));
+	private final int windowSize = Math.max(0, Settings.getInt(SettingKeys.UPDATE_DEDUPE_WINDOW, 1000));
+	private final Counter duplicates = Metrics.INSTANCE.counter("camcapture_updates_duplicate_total",
+			"Updates received again and skipped");
+	//ids of recently received updates, oldest first
+	private final LinkedHashSet<Long> window = new LinkedHashSet<>();
+	//ids received since the last commit
+	private final List<Long> pending = new ArrayList<>();
+	private long offset;
+	private long committedOffset;
+	private int lines;
+	private FileChannel log;
+	
+	
+	private UpdateCheckpoint() {
+		load();
+		compact();
+	}
+	
+	
+	/**
+	 * Returns the offset to request updates from - the id following the last committed update.
+	 * @return A long representing the offset, {@code 0} if no update was committed
+	 */
+	synchronized long getOffset() {
+		return offset;
+	}
+	
+	/**
+	 * Records a received update, unless it was already received.
+	 * @param updateId Id of update
+	 * @return {@code true} if update is new, {@code false} if it's a redelivered update to skip
+	 */
+	synchronized boolean accept(long updateId) {
+		if (updateId < committedOffset - windowSize || ! addToWindow(updateId)) {
+			duplicates.increment();
+			return false;
+		}
+		pending.add(updateId);
+		return true;
+	}
+	
+	/**
+	 * Commits the updates received since the last commit, and advances the offset.
+	 *  Nothing is written if neither changed.
+	 * @param nextOffset offset to request following updates from (ignored if lower than current offset)
+	 */
+	synchronized void commit(long nextOffset) {
+		offset = Math.max(offset, nextOffset);
+		if (pending.isEmpty() && offset == committedOffset)
+			return;
+		StringBuilder line = new StringBuilder().append(offset);
+		for (long updateId : pending)
+			line.append(' ').append(updateId);
+		pending.clear();
+		committedOffset = offset;
+		try {
+			//the window already holds the batch's ids, so a compacted log includes them
+			if (lines >= compactLines && compact())
+				return;
+			if (log == null)
+				log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						StandardOpenOption.APPEND);
+			log.write(ByteBuffer.wrap(line.append('\n').toString().getBytes(StandardCharsets.US_ASCII)));
+			log.force(false);
+			lines++;
+		} catch (IOException e) {
+			logger.error("Unable to write update checkpoint '" + logFile + "': " + e.getMessage(), e);
+		}
+	}
+	
+	
+	/**
+	 * Adds update id to the recent window, dropping the oldest id if the window is full.
+	 * @param updateId Id of update
+	 * @return {@code false} if id was already in the window
+	 */
+	private boolean addToWindow(long updateId) {
+		if (windowSize == 0)
+			return true;
+		if (! window.add(updateId))
+			return false;
+		if (window.size() > windowSize) {
+			Iterator<Long> oldest = window.iterator();
+			oldest.next();
+			oldest.remove();
+		}
+		return true;
+	}
+	
+	/**
+	 * Reads offset and recent update ids from the log. A last line without a line break was torn by a crash,
+	 *  and is ignored.
+	 */
+	private void load() {
+		if (! Files.exists(logFile))
+			return;
+		String content;
+		try {
+			content = new String(Files.readAllBytes(logFile), StandardCharsets.US_ASCII);
+		} catch (IOException e) {
+			logger.error("Unable to read update checkpoint '" + logFile + "': " + e.getMessage(), e);
+			return;
+		}
+		int end = content.lastIndexOf('\n');
+		for (String line : content.substring(0, end + 1).split("\n")) {
+			String[] values = line.trim().split(" ");
+			try {
+				offset = Math.max(offset, Long.parseLong(values[0]));
+				for (int i = 1; i < values.length; i++)
+					addToWindow(Long.parseLong(values[i]));
+			} catch (NumberFormatException exc) {
+				if (! line.trim().isEmpty())
+					logger.warn("Skipped invalid line in update checkpoint: {}", line);
+			}
+		}
+		committedOffset = offset;
+		logger.info("Resuming updates from offset {}", offset);
+	}
+	
+	/**
+	 * Rewrites the log as a single line of the offset and recent update ids. The line is written to a temporary file
+	 *  that atomically replaces the log, so a crash leaves either the old or the new log.
+	 * @return {@code true} if log was rewritten, {@code false} otherwise
+	 */
+	private boolean compact() {
+		FileUtil.closeResource(log);
+		log = null;
+		lines = 0;
+		if (offset == 0 && window.isEmpty())
+			return false;
+		StringBuilder line = new StringBuilder().append(offset);
+		for (long updateId : window)
+			line.append(' ').append(updateId);
+		Path temp = logFile.resolveSibling(logFile.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			channel.write(ByteBuffer.wrap(line.append('\n').toString().getBytes(StandardCharsets.US_ASCII)));
+			channel.force(false);
+		} catch (IOException e) {
+			logger.error("Unable to write update checkpoint '" + temp + "': " + e.getMessage(), e);
+			return false;
+		}
+		try {
+			Files.move(temp, logFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			lines = 1;
+			return true;
+		} catch (IOException e) {
+			logger.error("Unable to replace update checkpoint '" + logFile + "': " + e.getMessage(), e);
+			return false;
+		}
+	}
+	
+}
@@ -0,0 +1,194 @@
+package org.miri.camcapture.impl;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import javax.json.stream.JsonParserFactory;
+
+import org.miri.camcapture.api.TelegramConstants;
+
+/**
+ * Parses getUpdates responses, and updates posted to the webhook, into {@link Update} objects. <br>
+ * Streams through the response, reading only the update id, chat id and text of each update 
+ *  and skipping everything else (other message fields, and updates that aren't text messages - 
+ *  such as photos, edits and callbacks) without building it. Update objects are reused between parses,
+ *  so a poll allocates little more than the chat ids and texts it returns. <br>
+ * Not thread safe - each parser is used by a single thread at a time.
+ * @author Miri Yehezkel
+ *
+ */
+class UpdateParser {
+	//parser factory is looked up once, instead of for each response
+	private static final JsonParserFactory parserFactory = Json.createParserFactory(Collections.emptyMap());
+	private final List<Update> pool = new ArrayList<>();
+	private final List<Update> updates = new ArrayList<>();
+	private long lastUpdateId;
+	//fields of the message being parsed
+	private String chatId;
+	private String text;
+	
+	
+	/**
+	 * Parses a getUpdates response body.
+	 * @param content response body
+	 * @return A List of text message {@link Update} objects, in the order they were received. 
+	 *  The list and its updates are reused by the next parse
+	 * @throws JsonException if response body isn't valid JSON
+	 */
+	List<Update> parse(InputStream content) {
+		updates.clear();
+		lastUpdateId = -1;
+		try (JsonParser parser = parserFactory.createParser(content)) {
+			if (parser.next() != Event.START_OBJECT)
+				throw new JsonException("Expected an object");
+			while (parser.next() == Event.KEY_NAME) {
+				if (TelegramConstants.RESULT_FIELD.equals(parser.getString()) && parser.next() == Event.START_ARRAY)
+					parseResults(parser);
+				else
+					skipValue(parser);
+			}
+		}
+		return updates;
+	}
+	
+	/**
+	 * Parses a single update, as posted to a webhook.
+	 * @param content request body
+	 * @return A List holding the update if it's a text message, empty otherwise.
+	 *  The list and its update are reused by the next parse
+	 * @throws JsonException if request body isn't valid JSON
+	 */
+	List<Update> parseUpdate(InputStream content) {
+		updates.clear();
+		lastUpdateId = -1;
+		try (JsonParser parser = parserFactory.createParser(content)) {
+			if (parser.next() != Event.START_OBJECT)
+				throw new JsonException("Expected an object");
+			parseUpdate(parser);
+		}
+		return updates;
+	}
+	
+	/**
+	 * Returns the id of the last update in the last parsed response, including updates that were skipped.
+	 * @return A long representing the last update id, {@code -1} if response held no updates
+	 */
+	long getLastUpdateId() {
+		return lastUpdateId;
+	}
+	
+	
+	/**
+	 * Parses updates of the result array.
+	 * @param parser parser positioned at the start of the array
+	 */
+	private void parseResults(JsonParser parser) {
+		Event event;
+		while ((event = parser.next()) != Event.END_ARRAY) {
+			if (event == Event.START_OBJECT)
+				parseUpdate(parser);
+			else
+				skipValue(parser, event);
+		}
+	}
+	
+	/**
+	 * Parses an update, adding it if it's a text message.
+	 * @param parser parser positioned at the start of the update
+	 */
+	private void parseUpdate(JsonParser parser) {
+		long updateId = -1;
+		chatId = null;
+		text = null;
+		while (parser.next() == Event.KEY_NAME) {
+			String key = parser.getString();
+			Event event = parser.next();
+			if (TelegramConstants.UPDATE_ID_FIELD.equals(key) && event == Event.VALUE_NUMBER)
+				updateId = parser.getLong();
+			else if (TelegramConstants.MESSAGE_FIELD.equals(key) && event == Event.START_OBJECT)
+				parseMessage(parser);
+			else
+				skipValue(parser, event);
+		}
+		lastUpdateId = Math.max(lastUpdateId, updateId);
+		if (updateId < 0 || chatId == null || text == null)
+			return;
+		Update update;
+		if (updates.size() < pool.size()) {
+			update = pool.get(updates.size());
+		} else {
+			update = new Update();
+			pool.add(update);
+		}
+		update.set(updateId, chatId, text);
+		updates.add(update);
+	}
+	
+	/**
+	 * Parses a message's chat id and text.
+	 * @param parser parser positioned at the start of the message
+	 */
+	private void parseMessage(JsonParser parser) {
+		while (parser.next() == Event.KEY_NAME) {
+			String key = parser.getString();
+			Event event = parser.next();
+			if (TelegramConstants.TEXT_FIELD.equals(key) && event == Event.VALUE_STRING)
+				text = parser.getString();
+			else if (TelegramConstants.CHAT_FIELD.equals(key) && event == Event.START_OBJECT)
+				chatId = parseChatId(parser);
+			else
+				skipValue(parser, event);
+		}
+	}
+	
+	/**
+	 * Parses a chat's id.
+	 * @param parser parser positioned at the start of the chat
+	 * @return A String representing the chat id, {@code null} if not found
+	 */
+	private String parseChatId(JsonParser parser) {
+		String id = null;
+		while (parser.next() == Event.KEY_NAME) {
+			String key = parser.getString();
+			Event event = parser.next();
+			if (TelegramConstants.ID_FIELD.equals(key) && event == Event.VALUE_NUMBER)
+				id = parser.getString();
+			else
+				skipValue(parser, event);
+		}
+		return id;
+	}
+	
+	/**
+	 * Skips the value following a key.
+	 * @param parser parser positioned at a key
+	 */
+	private void skipValue(JsonParser parser) {
+		skipValue(parser, parser.next());
+	}
+	
+	/**
+	 * Skips a value, including all nested values of objects and arrays.
+	 * @param parser parser positioned at the value
+	 * @param event the value's event
+	 */
+	private void skipValue(JsonParser parser, Event event) {
+		if (event != Event.START_OBJECT && event != Event.START_ARRAY)
+			return;
+		int depth = 1;
+		while (depth > 0) {
+			event = parser.next();
+			if (event == Event.START_OBJECT || event == Event.START_ARRAY)
+				depth++;
+			else if (event == Event.END_OBJECT || event == Event.END_ARRAY)
+				depth--;
+		}
+	}
+	
+}
@@ -0,0 +1,155 @@
+package org.miri.camcapture.impl;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.util.List;
+
+import org.miri.camcapture.api.VideoOptions;
+
+import com.xuggle.mediatool.IMediaWriter;
+import com.xuggle.mediatool.ToolFactory;
+import com.xuggle.xuggler.ICodec;
+import com.xuggle.xuggler.IContainer;
+import com.xuggle.xuggler.IPacket;
+import com.xuggle.xuggler.IPixelFormat;
+import com.xuggle.xuggler.IRational;
+import com.xuggle.xuggler.IStream;
+import com.xuggle.xuggler.IStreamCoder;
+import com.xuggle.xuggler.IVideoPicture;
+import com.xuggle.xuggler.video.ConverterFactory;
+import com.xuggle.xuggler.video.IConverter;
+
+/**
+ * Encodes frames into an H.264 video file. <br>
+ * Frames are encoded as they are added, so the video is never held in memory.
+ * A single converter is reused for all frames.
+ * @author Miri Yehezkel
+ *
+ */
+class VideoEncoder implements Closeable {
+	private final IMediaWriter writer;
+	private final int bitRate;
+	private IConverter converter;
+	private int pictures;
+	
+	/**
+	 * Opens video file for writing.
+	 * @param file video file
+	 * @param width frame width
+	 * @param height frame height
+	 * @param options video options
+	 * @throws IllegalArgumentException if unable to open file
+	 */
+	VideoEncoder(File file, int width, int height, VideoOptions options) {
+		writer = ToolFactory.makeWriter(file.getPath());
+		writer.addVideoStream(0, 0, ICodec.ID.CODEC_ID_H264, IRational.make(options.getFps(), 1), width, height);
+		bitRate = options.getBitRate();
+		if (bitRate > 0)
+			writer.getContainer().getStream(0).getStreamCoder().setBitRate(bitRate);
+	}
+	
+	/**
+	 * Converts image to a YUV420P picture. 
+	 * Conversion and encoding may run on different threads (each on a single thread).
+	 * @param image image to convert
+	 * @param timestamp picture timestamp (in microseconds)
+	 * @return An {@link IVideoPicture} object
+	 */
+	IVideoPicture toPicture(BufferedImage image, long timestamp) {
+		BufferedImage bgrImage = ConverterFactory.convertToType(image, BufferedImage.TYPE_3BYTE_BGR);
+		if (converter == null)
+			converter = ConverterFactory.createConverter(bgrImage, IPixelFormat.Type.YUV420P);
+		return converter.toPicture(bgrImage, timestamp);
+	}
+	
+	/**
+	 * Encodes picture into video. The first picture is encoded as a key frame.
+	 * @param picture picture to encode
+	 */
+	void encode(IVideoPicture picture) {
+		picture.setKeyFrame(pictures == 0);
+		//without a target bit rate, encode at best quality
+		if (bitRate <= 0)
+			picture.setQuality(0);
+		writer.encodeVideo(0, picture);
+		pictures++;
+	}
+	
+	/**
+	 * Converts and encodes image into video.
+	 * @param image image to encode
+	 * @param timestamp picture timestamp (in microseconds)
+	 */
+	void encode(BufferedImage image, long timestamp) {
+		encode(toPicture(image, timestamp));
+	}
+	
+	/**
+	 * Returns number of pictures encoded.
+	 * @return An int representing the number of encoded pictures
+	 */
+	int getPictures() {
+		return pictures;
+	}
+	
+	/**
+	 * Flushes encoder and closes video file.
+	 */
+	@Override
+	public void close() {
+		writer.close();
+	}
+	
+	/**
+	 * Joins video segments into a single video, copying their packets without re-encoding. 
+	 *  Segments must be encoded with the same options, each starting with a key frame. 
+	 *  Each segment's timestamps are shifted by its start time.
+	 * @param segments segment files, in order
+	 * @param segmentDuration duration of each segment (in microseconds)
+	 * @param file video file to write
+	 * @throws IllegalArgumentException if unable to read a segment or write the video
+	 */
+	static void concatenate(List<File> segments, long segmentDuration, File file) {
+		IContainer output = IContainer.make();
+		if (output.open(file.getPath(), IContainer.Type.WRITE, null) < 0)
+			throw new IllegalArgumentException("Unable to open video file " + file);
+		IStreamCoder outputCoder = null;
+		try {
+			IPacket packet = IPacket.make();
+			for (int i = 0; i < segments.size(); i++) {
+				IContainer input = IContainer.make();
+				if (input.open(segments.get(i).getPath(), IContainer.Type.READ, null) < 0)
+					throw new IllegalArgumentException("Unable to open video segment " + segments.get(i));
+				try {
+					IStream stream = input.getStream(0);
+					if (outputCoder == null) {
+						outputCoder = IStreamCoder.make(IStreamCoder.Direction.ENCODING, stream.getStreamCoder());
+						output.addNewStream(outputCoder);
+						if (outputCoder.open(null, null) < 0 || output.writeHeader() < 0)
+							throw new IllegalArgumentException("Unable to write video header to " + file);
+					}
+					//segment start, in the stream's time base
+					IRational timeBase = stream.getTimeBase();
+					long offset = i * segmentDuration * timeBase.getDenominator() / (timeBase.getNumerator() * 1000000L);
+					while (input.readNextPacket(packet) >= 0) {
+						if (packet.getStreamIndex() != 0 || ! packet.isComplete())
+							continue;
+						packet.setPts(packet.getPts() + offset);
+						packet.setDts(packet.getDts() + offset);
+						if (output.writePacket(packet) < 0)
+							throw new IllegalArgumentException("Unable to write video segment to " + file);
+					}
+				} finally {
+					input.close();
+				}
+			}
+			output.writeTrailer();
+		} finally {
+			if (outputCoder != null)
+				outputCoder.close();
+			output.close();
+		}
+	}
+	
+}
@@ -0,0 +1,180 @@
+package org.miri.camcapture.impl;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.miri.camcapture.api.CaptureProfile;
+import org.miri.camcapture.api.Frame;
+import org.miri.camcapture.api.IFrameBuffer;
+import org.miri.camcapture.api.VideoOptions;
+import org.miri.camcapture.exceptions.CameraException;
+import org.miri.camcapture.util.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xuggle.xuggler.IVideoPicture;
+
+/**
+ * Records videos from a frame buffer through a three stage pipeline: <br>
+ * <ol>
+ * <li>Capture - copies the latest frame at a fixed rate, so frame timing doesn't drift with encoding time</li>
+ * <li>Conversion - converts frames to YUV420P pictures</li>
+ * <li>Encoding - encodes pictures on the calling thread</li>
+ * </ol>
+ * Stages pass a small pool of reusable frames between them, taken from (and returned to) the {@link FramePool}. 
+ *  If a later stage falls behind, frames are dropped at capture rather than delaying the schedule.
+ * @author Miri Yehezkel
+ *
+ */
+enum VideoRecorder {
+	INSTANCE;
+	private final Logger logger = LoggerFactory.getLogger(VideoRecorder.class);
+	private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1, 
+			new DaemonThreadFactory("video-capture"));
+	private final ExecutorService converters = Executors.newCachedThreadPool(
+			new DaemonThreadFactory("video-converter"));
+	private final int pipelineFrames = 6;
+	
+	
+	/**
+	 * Records video from frame buffer. Returns when all frames are encoded.
+	 * @param frameBuffer buffer to read frames from
+	 * @param encoder encoder of video file
+	 * @param options video options
+	 * @throws CameraException if unable to read frames or encode video
+	 */
+	void record(IFrameBuffer frameBuffer, VideoEncoder encoder, VideoOptions options) throws CameraException {
+		int frames = options.getFrames();
+		long frameInterval = 1000000L / options.getFps();
+		BlockingQueue<PipelineFrame> free = new ArrayBlockingQueue<>(pipelineFrames);
+		BlockingQueue<PipelineFrame> captured = new ArrayBlockingQueue<>(pipelineFrames + 1);
+		BlockingQueue<PipelineFrame> converted = new ArrayBlockingQueue<>(pipelineFrames + 1);
+		AtomicReference<Exception> failure = new AtomicReference<>();
+		AtomicInteger dropped = new AtomicInteger();
+		Frame latest = frameBuffer.getLatestFrame(CaptureProfile.VIDEO);
+		BufferedImage image = latest.getImage();
+		List<PipelineFrame> items = new ArrayList<>();
+		items.add(new PipelineFrame(latest));
+		for (int i = 1; i < pipelineFrames; i++)
+			items.add(new PipelineFrame(FramePool.INSTANCE.acquire(image.getWidth(), image.getHeight())));
+		free.addAll(items);
+		
+		//capture stage
+		AtomicInteger ticks = new AtomicInteger();
+		ScheduledFuture<?> capture = scheduler.scheduleAtFixedRate(() -> {
+			int index = ticks.getAndIncrement();
+			if (index > frames)
+				return;
+			if (index == frames) {
+				captured.offer(PipelineFrame.END);
+				return;
+			}
+			PipelineFrame item = free.poll();
+			if (item == null) {
+				dropped.incrementAndGet();
+				return;
+			}
+			try {
+				item.frame = frameBuffer.getNextFrame(-1, item.frame, frameInterval / 1000, CaptureProfile.VIDEO);
+				item.index = index;
+				captured.offer(item);
+			} catch (CameraException exc) {
+				failure.compareAndSet(null, exc);
+				free.add(item);
+			}
+		}, 0, frameInterval, TimeUnit.MICROSECONDS);
+		
+		//conversion stage
+		CountDownLatch converterDone = new CountDownLatch(1);
+		converters.execute(() -> {
+			try {
+				PipelineFrame item;
+				while ((item = captured.take()) != PipelineFrame.END) {
+					item.picture = encoder.toPicture(item.frame.getImage(), item.index * frameInterval);
+					converted.add(item);
+				}
+			} catch (InterruptedException exc) {
+				Thread.currentThread().interrupt();
+			} catch (RuntimeException exc) {
+				failure.compareAndSet(null, exc);
+			} finally {
+				converted.offer(PipelineFrame.END);
+				converterDone.countDown();
+			}
+		});
+		
+		//encoding stage
+		boolean encoded = false;
+		try {
+			PipelineFrame item;
+			while ((item = converted.take()) != PipelineFrame.END) {
+				encoder.encode(item.picture);
+				item.picture = null;
+				free.add(item);
+			}
+			encoded = true;
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			failure.compareAndSet(null, exc);
+		} finally {
+			capture.cancel(false);
+			//capture may have stopped before ending conversion, which would then wait for frames forever
+			if (! encoded)
+				stopConversion(captured, converterDone);
+		}
+		if (failure.get() != null)
+			throw new CameraException("Unable to record video: " + failure.get().getMessage(), failure.get());
+		//after a failure, frames may still be used by a stage, so they're only pooled once all are encoded
+		for (PipelineFrame item : items)
+			FramePool.INSTANCE.release(item.frame);
+		logger.trace("Recorded video ({}), encoded {} frames, dropped {} frames", options, 
+				encoder.getPictures(), dropped.get());
+	}
+	
+	/**
+	 * Ends conversion stage after encoding failed, waiting briefly for it to exit. 
+	 *  If the end can't be queued, the queue is full of frames, so capture already queued its end.
+	 * @param captured queue of frames to convert
+	 * @param converterDone latch counted down once conversion exits
+	 */
+	private void stopConversion(BlockingQueue<PipelineFrame> captured, CountDownLatch converterDone) {
+		captured.offer(PipelineFrame.END);
+		boolean interrupted = Thread.interrupted();
+		try {
+			if (! converterDone.await(1, TimeUnit.SECONDS))
+				logger.warn("Video converter did not exit after encoding failed");
+		} catch (InterruptedException exc) {
+			interrupted = true;
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+	
+	
+	/**
+	 * A frame passed between pipeline stages.
+	 */
+	private static class PipelineFrame {
+		static final PipelineFrame END = new PipelineFrame(null);
+		Frame frame;
+		int index;
+		IVideoPicture picture;
+		
+		PipelineFrame(Frame frame) {
+			this.frame = frame;
+		}
+	}
+	
+}
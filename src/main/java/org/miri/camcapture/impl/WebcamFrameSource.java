@@ -0,0 +1,128 @@
+package org.miri.camcapture.impl;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.nio.ByteBuffer;
+
+import org.miri.camcapture.api.IFrameSource;
+import org.miri.camcapture.exceptions.CameraException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sarxos.webcam.Webcam;
+import com.github.sarxos.webcam.WebcamDevice;
+
+/**
+ * Reads frames from a camera device, at a requested resolution or the device's highest resolution. <br>
+ * Devices that expose their raw image bytes are read into a reusable direct buffer and converted into a reusable
+ *  image, so reading a frame allocates nothing. Other devices return a new image per frame.
+ * @author Miri Yehezkel
+ * @see IFrameSource
+ */
+public class WebcamFrameSource implements IFrameSource {
+	private final Logger logger = LoggerFactory.getLogger(WebcamFrameSource.class);
+	private final Webcam webcam;
+	//raw RGB bytes of the last frame, and the image they're converted into (reused between reads)
+	private ByteBuffer bytes;
+	private BufferedImage image;
+	
+	
+	/**
+	 * @param webcam camera to read from
+	 */
+	public WebcamFrameSource(Webcam webcam) {
+		this(webcam, null);
+	}
+	
+	/**
+	 * @param webcam camera to read from
+	 * @param resolution resolution to capture at, {@code null} (or a resolution the device doesn't support) 
+	 *  for the device's highest resolution
+	 */
+	public WebcamFrameSource(Webcam webcam, Dimension resolution) {
+		this.webcam = webcam;
+		setResolution(resolution);
+	}
+	
+	@Override
+	public String getName() {
+		return webcam.getName();
+	}
+	
+	@Override
+	public Dimension getSize() {
+		return webcam.getViewSize();
+	}
+	
+	@Override
+	public void open() throws CameraException {
+		if (! webcam.open())
+			throw new CameraException("Unable to open camera " + webcam.getName());
+	}
+	
+	@Override
+	public boolean isOpen() {
+		return webcam.isOpen();
+	}
+	
+	@Override
+	public BufferedImage read() {
+		if (! (webcam.getDevice() instanceof WebcamDevice.BufferAccess))
+			return webcam.getImage();
+		Dimension size = webcam.getViewSize();
+		int length = size.width * size.height * 3;
+		if (image == null || image.getWidth() != size.width || image.getHeight() != size.height) {
+			bytes = ByteBuffer.allocateDirect(length);
+			image = new BufferedImage(size.width, size.height, BufferedImage.TYPE_3BYTE_BGR);
+		}
+		bytes.clear();
+		webcam.getImageBytes(bytes);
+		//devices differ in whether they advance the buffer's position, the frame always starts at 0
+		bytes.rewind();
+		byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+		bytes.get(pixels, 0, length);
+		//device bytes are RGB, the image is BGR
+		for (int i = 0; i < length; i += 3) {
+			byte red = pixels[i];
+			pixels[i] = pixels[i + 2];
+			pixels[i + 2] = red;
+		}
+		return image;
+	}
+	
+	@Override
+	public void close() {
+		webcam.close();
+	}
+	
+	
+	/**
+	 * Sets requested resolution if device supports it, optimal resolution otherwise.
+	 * @param resolution requested resolution, {@code null} for optimal resolution
+	 */
+	private void setResolution(Dimension resolution) {
+		int w=0, h=0;
+		Dimension[] dms = webcam.getDevice().getResolutions();
+		if (resolution != null) {
+			for (Dimension d : dms) {
+				if (d.equals(resolution)) {
+					webcam.setViewSize(resolution);
+					logger.trace("Set Camera Resolution ({}x{})", resolution.width, resolution.height);
+					return;
+				}
+			}
+			logger.warn("Camera {} doesn't support {}x{}, using its highest resolution", webcam.getName(), 
+					resolution.width, resolution.height);
+		}
+		for (Dimension d : dms) {
+			if (w < d.getWidth()) {
+				w = (int) d.getWidth();  
+				h = (int) d.getHeight();
+			}
+		}
+		webcam.setViewSize(new Dimension(w, h));
+		logger.trace("Set Optimal Camera Resolution ({}x{})", w, h);
+	}
+	
+}
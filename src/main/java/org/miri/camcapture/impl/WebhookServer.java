@@ -0,0 +1,179 @@
+package org.miri.camcapture.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.Executors;
+
+import javax.json.JsonException;
+
+import org.miri.camcapture.api.ITelegram;
+import org.miri.camcapture.api.SettingKeys;
+import org.miri.camcapture.api.TelegramConstants;
+import org.miri.camcapture.exceptions.BotTokenAccessException;
+import org.miri.camcapture.exceptions.TelegramException;
+import org.miri.camcapture.util.Counter;
+import org.miri.camcapture.util.DaemonThreadFactory;
+import org.miri.camcapture.util.Histogram;
+import org.miri.camcapture.util.Metrics;
+import org.miri.camcapture.util.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Receives updates Telegram posts to the bot's webhook, instead of polling for them. <br>
+ * Requests are accepted by a non-blocking (selector based) HTTP server, and must carry the secret token
+ *  the webhook was registered with. Each update is acknowledged as soon as it's read, and then handed to
+ *  the same handling as polled updates - its command is executed by the {@link CommandDispatcher}. <br>
+ * Disabled unless a webhook URL is set. Telegram only posts to HTTPS URLs, so the server is meant to be
+ *  behind a TLS-terminating proxy forwarding the URL's path to it.
+ * @author Miri Yehezkel
+ *
+ */
+public enum WebhookServer {
+	INSTANCE;
+	private final Logger logger = LoggerFactory.getLogger(WebhookServer.class);
+	//max size of a posted update, larger requests are rejected
+	private static final int maxBodySize = 1024 * 1024;
+	private final String url = Settings.getString(SettingKeys.WEBHOOK_URL, "");
+	private final String host = Settings.getString(SettingKeys.WEBHOOK_HOST, "0.0.0.0");
+	private final int port = Settings.getInt(SettingKeys.WEBHOOK_PORT, 8443);
+	//secret token, generated for each run unless set
+	private final String secretToken = Settings.getString(SettingKeys.WEBHOOK_SECRET, createSecretToken());
+	private final Histogram receiveTime = Metrics.INSTANCE.histogram("camcapture_webhook_seconds",
+			"Time taken to read and acknowledge updates posted to the webhook");
+	private final Counter rejected = Metrics.INSTANCE.counter("camcapture_webhook_rejected_total",
+			"Requests to the webhook rejected for a missing or wrong secret token");
+	private HttpServer server;
+	
+	
+	/**
+	 * @return {@code true} if a webhook URL is set, {@code false} if updates are polled
+	 */
+	public boolean isEnabled() {
+		return ! url.isEmpty();
+	}
+	
+	/**
+	 * Starts receiving updates and registers the webhook with Telegram (if a webhook URL is set and not started).
+	 * @param telegram used to register the webhook
+	 * @return {@code true} if updates are received by the webhook, {@code false} if they should be polled -
+	 *  no webhook URL is set, or it couldn't be started or registered
+	 * @throws BotTokenAccessException if unable to access bot token
+	 */
+	public synchronized boolean start(ITelegram telegram) throws BotTokenAccessException {
+		if (! isEnabled())
+			return false;
+		if (server != null)
+			return true;
+		String path = URI.create(url).getPath();
+		try {
+			server = HttpServer.create(new InetSocketAddress(host, port), 0);
+			server.createContext(path == null || path.isEmpty() ? "/" : path, this::handle);
+			server.setExecutor(Executors.newSingleThreadExecutor(new DaemonThreadFactory("webhook-server")));
+			server.start();
+			telegram.setWebhook(url, secretToken);
+			logger.info("Receiving updates at {} (listening on {}:{})", url, host, port);
+			return true;
+		} catch (IOException | TelegramException | IllegalArgumentException exc) {
+			logger.error("Unable to start webhook, polling updates instead: " + exc.getMessage(), exc);
+			stop();
+			return false;
+		}
+	}
+	
+	/**
+	 * Stops receiving updates. The webhook stays registered with Telegram,
+	 *  so updates are held by Telegram until the server is started again or the webhook is deleted.
+	 */
+	public synchronized void stop() {
+		if (server != null)
+			server.stop(0);
+		server = null;
+	}
+	
+	
+	/**
+	 * Handles a request posted to the webhook. The request is acknowledged before its update is handled.
+	 * @param exchange HTTP exchange
+	 * @throws IOException if unable to read request or write response
+	 */
+	private void handle(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		byte[] body;
+		try {
+			if (! "POST".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			if (! isSecretToken(exchange.getRequestHeaders().getFirst(TelegramConstants.SECRET_TOKEN_HEADER))) {
+				rejected.increment();
+				exchange.sendResponseHeaders(401, -1);
+				return;
+			}
+			body = readBody(exchange.getRequestBody());
+			if (body == null) {
+				exchange.sendResponseHeaders(413, -1);
+				return;
+			}
+			exchange.sendResponseHeaders(200, -1);
+		} finally {
+			exchange.close();
+			receiveTime.recordSince(start);
+		}
+		try {
+			Telegram.INSTANCE.receiveUpdate(new ByteArrayInputStream(body));
+		} catch (JsonException exc) {
+			logger.warn("Unable to read update posted to webhook: {}", exc.getMessage());
+		}
+	}
+	
+	/**
+	 * Compares token to the secret token, in time independent of where they differ.
+	 * @param token token sent with request, {@code null} if none
+	 * @return {@code true} if token is the secret token, {@code false} otherwise
+	 */
+	private boolean isSecretToken(String token) {
+		return token != null && MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+				secretToken.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Reads request body.
+	 * @param in request body stream
+	 * @return The request body, {@code null} if it's larger than the max size
+	 * @throws IOException if unable to read request
+	 */
+	private byte[] readBody(InputStream in) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream(4096);
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			if (body.size() + read > maxBodySize)
+				return null;
+			body.write(buffer, 0, read);
+		}
+		return body.toByteArray();
+	}
+	
+	/**
+	 * Creates a random secret token. Telegram accepts letters, digits, _ and - (up to 256 characters).
+	 * @return A String representing the token
+	 */
+	private static String createSecretToken() {
+		byte[] token = new byte[32];
+		new SecureRandom().nextBytes(token);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+	}
+	
+}
@@ -0,0 +1,26 @@
+package org.miri.camcapture.util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing count. Updates from many threads don't contend.
+ * @author Miri Yehezkel
+ * @see Metrics
+ */
+public class Counter {
+	private final LongAdder count = new LongAdder();
+	
+	
+	public void increment() {
+		count.increment();
+	}
+	
+	public void add(long amount) {
+		count.add(amount);
+	}
+	
+	public long get() {
+		return count.sum();
+	}
+	
+}
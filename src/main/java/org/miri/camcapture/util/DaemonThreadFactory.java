@@ -0,0 +1,28 @@
+package org.miri.camcapture.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads, so background work never keeps the program alive.
+ * @author Miri Yehezkel
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+	private final String namePrefix;
+	private final AtomicInteger count = new AtomicInteger();
+	
+	/**
+	 * @param namePrefix prefix of created thread names (followed by thread number)
+	 */
+	public DaemonThreadFactory(String namePrefix) {
+		this.namePrefix = namePrefix;
+	}
+	
+	@Override
+	public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, namePrefix + "-" + count.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+	
+}
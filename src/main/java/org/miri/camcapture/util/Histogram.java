@@ -0,0 +1,110 @@
+package org.miri.camcapture.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram with fixed buckets, from 0.5 ms to 2 minutes. <br>
+ * Recording is lock free and allocation free, so it can be done on every frame and request.
+ *  Percentiles are estimated by interpolating within a bucket.
+ * @author Miri Yehezkel
+ * @see Metrics
+ */
+public class Histogram {
+	//upper bounds of buckets (in seconds), the last bucket is unbounded
+	static final double[] BUCKETS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 
+			1, 2.5, 5, 10, 30, 60, 120};
+	private static final long[] bucketNanos = new long[BUCKETS.length];
+	static {
+		for (int i = 0; i < BUCKETS.length; i++)
+			bucketNanos[i] = (long) (BUCKETS[i] * 1e9);
+	}
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS.length + 1);
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+	
+	
+	/**
+	 * Records a latency.
+	 * @param nanos latency (in ns)
+	 */
+	public void record(long nanos) {
+		int bucket = 0;
+		while (bucket < bucketNanos.length && nanos > bucketNanos[bucket])
+			bucket++;
+		counts.incrementAndGet(bucket);
+		sum.add(nanos);
+		max.accumulateAndGet(nanos, Math::max);
+	}
+	
+	/**
+	 * Records the time passed since given start time.
+	 * @param startNanos start time, as returned by {@link System#nanoTime()}
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+	
+	/**
+	 * Returns number of recorded latencies.
+	 * @return A long representing the count
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < counts.length(); i++)
+			count += counts.get(i);
+		return count;
+	}
+	
+	/**
+	 * Returns number of recorded latencies in bucket.
+	 * @param bucket bucket index, {@link #BUCKETS} length for the unbounded bucket
+	 * @return A long representing the bucket's count
+	 */
+	long getBucketCount(int bucket) {
+		return counts.get(bucket);
+	}
+	
+	/**
+	 * Returns sum of recorded latencies.
+	 * @return A double representing the sum (in seconds)
+	 */
+	public double getSum() {
+		return sum.sum() / 1e9;
+	}
+	
+	/**
+	 * Returns the highest recorded latency.
+	 * @return A double representing the max latency (in seconds)
+	 */
+	public double getMax() {
+		return max.get() / 1e9;
+	}
+	
+	/**
+	 * Estimates a percentile of recorded latencies.
+	 * @param percentile percentile (0-100)
+	 * @return A double representing the latency (in seconds), {@code 0} if nothing was recorded
+	 */
+	public double getPercentile(double percentile) {
+		long[] snapshot = new long[counts.length()];
+		long total = 0;
+		for (int i = 0; i < snapshot.length; i++)
+			total += snapshot[i] = counts.get(i);
+		if (total == 0)
+			return 0;
+		double rank = percentile / 100 * total;
+		long seen = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			if (snapshot[i] > 0 && seen + snapshot[i] >= rank) {
+				double lower = i == 0 ? 0 : BUCKETS[i - 1];
+				double upper = i < BUCKETS.length ? BUCKETS[i] : getMax();
+				return Math.min(getMax(), lower + (upper - lower) * (rank - seen) / snapshot[i]);
+			}
+			seen += snapshot[i];
+		}
+		return getMax();
+	}
+	
+}
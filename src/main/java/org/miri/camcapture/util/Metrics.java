@@ -0,0 +1,168 @@
+package org.miri.camcapture.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.miri.camcapture.api.SettingKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of the application's metrics - latency histograms, counters and gauges. <br>
+ * Metrics are named in Prometheus style (e.g. <i>camcapture_upload_seconds</i>) and exposed through JMX 
+ *  (as <i>org.miri.camcapture:type=Metrics</i>), Prometheus text and a short summary for the stats command.
+ * @author Miri Yehezkel
+ *
+ */
+public enum Metrics {
+	INSTANCE;
+	private static final String prefix = "camcapture_";
+	private final Logger logger = LoggerFactory.getLogger(Metrics.class);
+	private final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+	private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+	private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+	private final Map<String, String> descriptions = new ConcurrentHashMap<>();
+	
+	
+	private Metrics() {
+		if (Settings.getBoolean(SettingKeys.METRICS_JMX, true))
+			registerMBean();
+	}
+	
+	/**
+	 * Returns histogram of given name, creating it if needed.
+	 * @param name metric name, ending with <i>_seconds</i>
+	 * @param description what is measured
+	 * @return A {@link Histogram} object
+	 */
+	public Histogram histogram(String name, String description) {
+		descriptions.putIfAbsent(name, description);
+		return histograms.computeIfAbsent(name, key -> new Histogram());
+	}
+	
+	/**
+	 * Returns counter of given name, creating it if needed.
+	 * @param name metric name, ending with <i>_total</i>
+	 * @param description what is counted
+	 * @return A {@link Counter} object
+	 */
+	public Counter counter(String name, String description) {
+		descriptions.putIfAbsent(name, description);
+		return counters.computeIfAbsent(name, key -> new Counter());
+	}
+	
+	/**
+	 * Registers a gauge, read whenever metrics are exposed. Replaces a gauge of the same name.
+	 * @param name metric name
+	 * @param description what is measured
+	 * @param value supplies the gauge's current value
+	 */
+	public void gauge(String name, String description, LongSupplier value) {
+		descriptions.putIfAbsent(name, description);
+		gauges.put(name, value);
+	}
+	
+	/**
+	 * Returns all metrics in the Prometheus text exposition format.
+	 * @return A String representing the metrics
+	 */
+	public String toPrometheusText() {
+		StringBuilder text = new StringBuilder(4096);
+		histograms.forEach((name, histogram) -> {
+			appendHeader(text, name, "histogram");
+			long cumulative = 0;
+			for (int i = 0; i <= Histogram.BUCKETS.length; i++) {
+				cumulative += histogram.getBucketCount(i);
+				String bound = i < Histogram.BUCKETS.length ? Double.toString(Histogram.BUCKETS[i]) : "+Inf";
+				text.append(name).append("_bucket{le=\"").append(bound).append("\"} ").append(cumulative).append('\n');
+			}
+			text.append(name).append("_sum ").append(histogram.getSum()).append('\n');
+			text.append(name).append("_count ").append(cumulative).append('\n');
+		});
+		counters.forEach((name, counter) -> {
+			appendHeader(text, name, "counter");
+			text.append(name).append(' ').append(counter.get()).append('\n');
+		});
+		gauges.forEach((name, gauge) -> {
+			appendHeader(text, name, "gauge");
+			text.append(name).append(' ').append(gauge.getAsLong()).append('\n');
+		});
+		return text.toString();
+	}
+	
+	/**
+	 * Returns a short, human readable summary of metrics - latency percentiles of every measured stage,
+	 *  counters and gauges.
+	 * @return A String representing the summary
+	 */
+	public String summarize() {
+		StringBuilder text = new StringBuilder("Latency (count, p50, p99, max in ms):\n");
+		histograms.forEach((name, histogram) -> {
+			if (histogram.getCount() > 0)
+				text.append(String.format(Locale.ROOT, "%s: %d, %.1f, %.1f, %.1f%n", getShortName(name), histogram.getCount(),
+						histogram.getPercentile(50) * 1000, histogram.getPercentile(99) * 1000, histogram.getMax() * 1000));
+		});
+		text.append("\nCounters:\n");
+		counters.forEach((name, counter) -> text.append(getShortName(name)).append(": ").append(counter.get()).append('\n'));
+		text.append("\nGauges:\n");
+		gauges.forEach((name, gauge) -> text.append(getShortName(name)).append(": ").append(gauge.getAsLong()).append('\n'));
+		return text.toString();
+	}
+	
+	
+	Map<String, Histogram> getHistograms() {
+		return histograms;
+	}
+	
+	Map<String, Counter> getCounters() {
+		return counters;
+	}
+	
+	Map<String, LongSupplier> getGauges() {
+		return gauges;
+	}
+	
+	String getDescription(String name) {
+		return descriptions.getOrDefault(name, name);
+	}
+	
+	/**
+	 * Returns metric name without the application prefix and unit suffix (e.g. "upload" for "camcapture_upload_seconds").
+	 * @param name metric name
+	 * @return A String representing the short name
+	 */
+	String getShortName(String name) {
+		if (name.startsWith(prefix))
+			name = name.substring(prefix.length());
+		if (name.endsWith("_seconds"))
+			name = name.substring(0, name.length() - "_seconds".length());
+		else if (name.endsWith("_total"))
+			name = name.substring(0, name.length() - "_total".length());
+		return name;
+	}
+	
+	private void appendHeader(StringBuilder text, String name, String type) {
+		text.append("# HELP ").append(name).append(' ').append(getDescription(name)).append('\n');
+		text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+	
+	/**
+	 * Registers metrics with the platform MBean server.
+	 */
+	private void registerMBean() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(this), 
+					new ObjectName("org.miri.camcapture:type=Metrics"));
+		} catch (JMException exc) {
+			logger.warn("Unable to register metrics MBean: {}", exc.getMessage());
+		}
+	}
+	
+}
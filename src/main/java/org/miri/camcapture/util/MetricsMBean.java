@@ -0,0 +1,107 @@
+package org.miri.camcapture.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+
+/**
+ * Exposes {@link Metrics} through JMX, as read-only attributes. <br>
+ * Counters and gauges are exposed by their short name; histograms as <i>name_count</i>, <i>name_p50_ms</i>, 
+ *  <i>name_p99_ms</i> and <i>name_max_ms</i>. Attributes are listed when requested, so metrics registered 
+ *  later are exposed too.
+ * @author Miri Yehezkel
+ *
+ */
+class MetricsMBean implements DynamicMBean {
+	private static final String[] histogramStats = {"_count", "_p50_ms", "_p99_ms", "_max_ms"};
+	private final Metrics metrics;
+	
+	
+	MetricsMBean(Metrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		for (String name : metrics.getCounters().keySet())
+			if (metrics.getShortName(name).equals(attribute))
+				return metrics.getCounters().get(name).get();
+		for (String name : metrics.getGauges().keySet())
+			if (metrics.getShortName(name).equals(attribute))
+				return metrics.getGauges().get(name).getAsLong();
+		for (String name : metrics.getHistograms().keySet()) {
+			String shortName = metrics.getShortName(name);
+			if (! attribute.startsWith(shortName))
+				continue;
+			Histogram histogram = metrics.getHistograms().get(name);
+			switch (attribute.substring(shortName.length())) {
+				case "_count":
+					return (double) histogram.getCount();
+				case "_p50_ms":
+					return histogram.getPercentile(50) * 1000;
+				case "_p99_ms":
+					return histogram.getPercentile(99) * 1000;
+				case "_max_ms":
+					return histogram.getMax() * 1000;
+				default:
+					break;
+			}
+		}
+		throw new AttributeNotFoundException(attribute);
+	}
+	
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes) {
+			try {
+				list.add(new Attribute(attribute, getAttribute(attribute)));
+			} catch (AttributeNotFoundException exc) {
+				//unknown attributes are left out
+			}
+		}
+		return list;
+	}
+	
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<>();
+		for (String name : metrics.getCounters().keySet())
+			attributes.add(new MBeanAttributeInfo(metrics.getShortName(name), "long", metrics.getDescription(name), 
+					true, false, false));
+		for (String name : metrics.getGauges().keySet())
+			attributes.add(new MBeanAttributeInfo(metrics.getShortName(name), "long", metrics.getDescription(name), 
+					true, false, false));
+		for (String name : metrics.getHistograms().keySet())
+			for (String stat : histogramStats)
+				attributes.add(new MBeanAttributeInfo(metrics.getShortName(name) + stat, "double", 
+						metrics.getDescription(name), true, false, false));
+		return new MBeanInfo(Metrics.class.getName(), "Camera capture metrics", 
+				attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], 
+				new MBeanNotificationInfo[0]);
+	}
+	
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Metrics are read-only");
+	}
+	
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+	
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) {
+		throw new UnsupportedOperationException("No operations");
+	}
+	
+}
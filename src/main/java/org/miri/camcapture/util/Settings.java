@@ -0,0 +1,115 @@
+package org.miri.camcapture.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides access to user settings. <br>
+ * Settings are read from a properties file named <i>CameraCaptureSettings</i> (if exists) 
+ *  and can be overridden by system properties (e.g. {@code -Dtelegram.poll.timeout=30}).
+ * @author Miri Yehezkel
+ */
+public class Settings {
+	private static Logger logger = LoggerFactory.getLogger(Settings.class);
+	private static final String settingsFileName = "CameraCaptureSettings";
+	private static Properties properties;
+	
+	/**
+	 * Retrieves a String setting.
+	 * @param key setting key
+	 * @param defaultValue value to return if setting isn't defined
+	 * @return A String representing the setting's value
+	 */
+	public static String getString(String key, String defaultValue) {
+		String value = System.getProperty(key);
+		if (value == null)
+			value = getProperties().getProperty(key);
+		return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+	}
+	
+	/**
+	 * Retrieves an int setting.
+	 * @param key setting key
+	 * @param defaultValue value to return if setting isn't defined or isn't a number
+	 * @return An int representing the setting's value
+	 */
+	public static int getInt(String key, int defaultValue) {
+		return (int) getLong(key, defaultValue);
+	}
+	
+	/**
+	 * Retrieves a long setting.
+	 * @param key setting key
+	 * @param defaultValue value to return if setting isn't defined or isn't a number
+	 * @return A long representing the setting's value
+	 */
+	public static long getLong(String key, long defaultValue) {
+		String value = getString(key, null);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			logger.warn("Setting '{}' is not a number ({}), using default ({})", key, value, defaultValue);
+			return defaultValue;
+		}
+	}
+	
+	/**
+	 * Retrieves a double setting.
+	 * @param key setting key
+	 * @param defaultValue value to return if setting isn't defined or isn't a number
+	 * @return A double representing the setting's value
+	 */
+	public static double getDouble(String key, double defaultValue) {
+		String value = getString(key, null);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			logger.warn("Setting '{}' is not a number ({}), using default ({})", key, value, defaultValue);
+			return defaultValue;
+		}
+	}
+	
+	/**
+	 * Retrieves a boolean setting.
+	 * @param key setting key
+	 * @param defaultValue value to return if setting isn't defined
+	 * @return {@code true} if setting is set to "true", {@code false} if set to any other value
+	 */
+	public static boolean getBoolean(String key, boolean defaultValue) {
+		String value = getString(key, null);
+		return value == null ? defaultValue : Boolean.parseBoolean(value);
+	}
+	
+	
+	/**
+	 * Loads settings file on first access.
+	 * @return A {@link Properties} object holding the settings file entries
+	 */
+	private static synchronized Properties getProperties() {
+		if (properties == null) {
+			properties = new Properties();
+			Path path = Paths.get(settingsFileName);
+			if (Files.exists(path)) {
+				try (Reader reader = Files.newBufferedReader(path)) {
+					properties.load(reader);
+					logger.trace("read settings from file");
+				} catch (IOException e) {
+					logger.warn("Could not read settings file (path: " + path + ")", e);
+				}
+			}
+		}
+		return properties;
+	}
+	
+}
@@ -0,0 +1,69 @@
+package org.miri.camcapture.util;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Random;
+
+/**
+ * Creates camera-like images, so replay and benchmarks run without a camera. <br>
+ * Images are generated from a fixed seed, so every run encodes and compares the same pixels.
+ * @author Miri Yehezkel
+ *
+ */
+public final class SyntheticImages {
+	private static final long SEED = 20180101L;
+	
+	private SyntheticImages() {}
+	
+	/**
+	 * Creates a scene with a gradient background, a few shapes and sensor-like noise.
+	 * @param width image width
+	 * @param height image height
+	 * @return A {@link BufferedImage} of type {@link BufferedImage#TYPE_3BYTE_BGR}
+	 */
+	public static BufferedImage scene(int width, int height) {
+		return scene(width, height, -1);
+	}
+	
+	/**
+	 * Creates a scene with a gradient background, a few shapes, a moving object and sensor-like noise.
+	 * @param width image width
+	 * @param height image height
+	 * @param objectX horizontal position (in pixels) of a moving object, negative for none
+	 * @return A {@link BufferedImage} of type {@link BufferedImage#TYPE_3BYTE_BGR}
+	 */
+	public static BufferedImage scene(int width, int height, int objectX) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D graphics = image.createGraphics();
+		graphics.setPaint(new GradientPaint(0, 0, new Color(70, 90, 120), width, height, new Color(200, 190, 170)));
+		graphics.fillRect(0, 0, width, height);
+		graphics.setColor(new Color(60, 50, 40));
+		graphics.fillRect(width / 10, height / 2, width / 4, height / 3);
+		graphics.setColor(new Color(150, 40, 40));
+		graphics.fillOval(width * 2 / 3, height / 6, width / 6, width / 6);
+		if (objectX >= 0) {
+			graphics.setColor(new Color(30, 30, 30));
+			graphics.fillRect(objectX, height / 3, width / 8, height / 2);
+		}
+		graphics.dispose();
+		addNoise(image, new Random(SEED));
+		return image;
+	}
+	
+	/**
+	 * Adds small random noise to every channel, as a camera sensor does.
+	 * @param image image of type {@link BufferedImage#TYPE_3BYTE_BGR}
+	 * @param random noise source
+	 */
+	private static void addNoise(BufferedImage image, Random random) {
+		byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+		for (int i = 0; i < data.length; i++) {
+			int value = (data[i] & 0xff) + random.nextInt(9) - 4;
+			data[i] = (byte) Math.max(0, Math.min(255, value));
+		}
+	}
+	
+}